@@ -19,11 +19,14 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.time.LocalDate;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Optional;
 
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -43,16 +46,19 @@ class AdController {
 	private final AdTableRepository adTableRepository;
 	private final AdService adService;
 	private final BookRepository bookRepository;
+	private final DatasetEvents datasetEvents;
 
 	AdController(AmsDataRepository amsDataRepository,
 				 AdTableRepository adTableRepository,
 				 AdService adService,
-				 BookRepository bookRepository) {
+				 BookRepository bookRepository,
+				 DatasetEvents datasetEvents) {
 
 		this.amsDataRepository = amsDataRepository;
 		this.adTableRepository = adTableRepository;
 		this.adService = adService;
 		this.bookRepository = bookRepository;
+		this.datasetEvents = datasetEvents;
 	}
 
 	@GetMapping("/ads")
@@ -63,10 +69,20 @@ class AdController {
 		return Mono.just("ads");
 	}
 
+	/**
+	 * With {@code title}s, only those books' rows are computed, which is how the page refreshes the rows an import
+	 * touched.
+	 */
 	@GetMapping("/conversions")
-	Mono<String> conversions(@RequestParam(name = "window", required = false) Optional<String> optionalWindow, Model model) {
+	Mono<String> conversions(@RequestParam(name = "window", required = false) Optional<String> optionalWindow,
+								@RequestParam(name = "order", required = false) Optional<String> optionalOrder,
+								@RequestParam(name = "limit", required = false) Optional<Integer> limit,
+								@RequestParam(name = "page", defaultValue = "0") int page,
+								@RequestParam(name = "title", required = false) Optional<List<String>> titles,
+								Model model) {
 
 		String window = optionalWindow.orElse("all");
+		String order = optionalOrder.orElse("best");
 
 		model.addAttribute("filterOptions", Arrays.asList(
 			new FilterOption("all", "Lifetime", window.equals("all")),
@@ -76,44 +92,30 @@ class AdController {
 			new FilterOption("15days", "Last 15 days", window.equals("15days"))
 		));
 
-		if ("all".equals(window)) {
+		Optional<LocalDate> date = since(window);
 
-			model.addAttribute("conversionData",
-				adService.clicksToConvert(Optional.empty())
-					.sort((o1, o2) -> Double.compare(o2.getRawROI(), o1.getRawROI())));
+		Comparator<BookDTO> byRoi = Comparator.comparingDouble(BookDTO::getRawROI);
 
-		} else if ("90days".equals(window)) {
-
-			model.addAttribute("conversionData",
-				adService.clicksToConvert(Optional.of(LocalDate.now().minusDays(90)))
-					.sort((o1, o2) -> Double.compare(o2.getRawROI(), o1.getRawROI())));
-
-		} else if ("45days".equals(window)) {
-
-			model.addAttribute("conversionData",
-				adService.clicksToConvert(Optional.of(LocalDate.now().minusDays(45)))
-					.sort((o1, o2) -> Double.compare(o2.getRawROI(), o1.getRawROI())));
-
-		} else if ("30days".equals(window)) {
-
-			model.addAttribute("conversionData",
-				adService.clicksToConvert(Optional.of(LocalDate.now().minusDays(30)))
-					.sort((o1, o2) -> Double.compare(o2.getRawROI(), o1.getRawROI())));
-
-		} else if ("15days".equals(window)) {
-
-			model.addAttribute("conversionData",
-				adService.clicksToConvert(Optional.of(LocalDate.now().minusDays(15)))
-					.sort((o1, o2) -> Double.compare(o2.getRawROI(), o1.getRawROI())));
-		}
+		model.addAttribute("window", window);
+		model.addAttribute("order", order);
+		model.addAttribute("limit", limit.orElse(null));
+		model.addAttribute("page", page);
+		addRankedPage(model,
+			titles.isPresent() ? adService.clicksToConvert(titles.get(), date) : adService.clicksToConvert(date),
+			"worst".equals(order) ? byRoi : byRoi.reversed(), limit, page);
 
 		return Mono.just("conversions");
 	}
 
 	@GetMapping("/seriesConversions")
-	Mono<String> seriesConversions(@RequestParam(name = "window", required = false) Optional<String> optionalWindow, Model model) {
+	Mono<String> seriesConversions(@RequestParam(name = "window", required = false) Optional<String> optionalWindow,
+								@RequestParam(name = "order", required = false) Optional<String> optionalOrder,
+								@RequestParam(name = "limit", required = false) Optional<Integer> limit,
+								@RequestParam(name = "page", defaultValue = "0") int page,
+								Model model) {
 
 		String window = optionalWindow.orElse("all");
+		String order = optionalOrder.orElse("best");
 
 		model.addAttribute("filterOptions", Arrays.asList(
 			new FilterOption("all", "Lifetime", window.equals("all")),
@@ -123,49 +125,70 @@ class AdController {
 			new FilterOption("15days", "Last 15 days", window.equals("15days"))
 		));
 
-		if ("all".equals(window)) {
-
-			model.addAttribute("conversionData",
-				adService.clicksToConvertPerSeries(Optional.empty())
-					.sort((o1, o2) -> Double.compare(o2.getRawROI(), o1.getRawROI())));
+		Optional<LocalDate> date = since(window);
 
-		} else if ("90days".equals(window)) {
+		Comparator<SeriesDTO> byRoi = Comparator.comparingDouble(SeriesDTO::getRawROI);
 
-			model.addAttribute("conversionData",
-				adService.clicksToConvertPerSeries(Optional.of(LocalDate.now().minusDays(90)))
-					.sort((o1, o2) -> Double.compare(o2.getRawROI(), o1.getRawROI())));
+		model.addAttribute("window", window);
+		model.addAttribute("order", order);
+		model.addAttribute("limit", limit.orElse(null));
+		model.addAttribute("page", page);
+		addRankedPage(model, adService.clicksToConvertPerSeries(date), "worst".equals(order) ? byRoi : byRoi.reversed(), limit, page);
 
-		} else if ("45days".equals(window)) {
+		return Mono.just("seriesConversions");
+	}
 
-			model.addAttribute("conversionData",
-				adService.clicksToConvertPerSeries(Optional.of(LocalDate.now().minusDays(45)))
-					.sort((o1, o2) -> Double.compare(o2.getRawROI(), o1.getRawROI())));
+	/**
+	 * The first day of a filter window, or none for the lifetime window.
+	 */
+	private static Optional<LocalDate> since(String window) {
 
+		if ("90days".equals(window)) {
+			return Optional.of(LocalDate.now().minusDays(90));
+		} else if ("45days".equals(window)) {
+			return Optional.of(LocalDate.now().minusDays(45));
 		} else if ("30days".equals(window)) {
+			return Optional.of(LocalDate.now().minusDays(30));
+		} else if ("15days".equals(window)) {
+			return Optional.of(LocalDate.now().minusDays(15));
+		} else {
+			return Optional.empty();
+		}
+	}
 
-			model.addAttribute("conversionData",
-				adService.clicksToConvertPerSeries(Optional.of(LocalDate.now().minusDays(30)))
-					.sort((o1, o2) -> Double.compare(o2.getRawROI(), o1.getRawROI())));
+	/**
+	 * With a {@code limit}, only the requested page is ranked, leaving the rest of the catalog unsorted. One row past
+	 * the page is ranked as well, only to learn whether there's a next page to link to.
+	 */
+	private static <T> void addRankedPage(Model model, Flux<T> conversions, Comparator<T> order, Optional<Integer> limit, int page) {
 
-		} else if ("15days".equals(window)) {
+		Optional<Integer> pageSize = limit.filter(size -> size > 0);
 
-			model.addAttribute("conversionData",
-				adService.clicksToConvertPerSeries(Optional.of(LocalDate.now().minusDays(15)))
-					.sort((o1, o2) -> Double.compare(o2.getRawROI(), o1.getRawROI())));
+		if (!pageSize.isPresent()) {
+			model.addAttribute("conversionData", conversions.sort(order));
+			model.addAttribute("hasNext", false);
+			return;
 		}
 
-		return Mono.just("seriesConversions");
+		int size = pageSize.get();
+		long skipped = (long) Math.max(page, 0) * size;
+
+		Mono<List<T>> pageAndOneMore = Utils.topK(conversions, order, 0, Math.toIntExact(skipped + size + 1))
+			.skip(skipped)
+			.collectList()
+			.cache();
+
+		model.addAttribute("conversionData", pageAndOneMore.map(rows -> rows.subList(0, Math.min(rows.size(), size))));
+		model.addAttribute("hasNext", pageAndOneMore.map(rows -> rows.size() > size));
 	}
 
 	@GetMapping("/adChart/{title}")
 	Mono<String> adPerformance(@PathVariable String title, Model model) {
 
-		model.addAttribute("stats", adTableRepository.findByBookTitle(title)
-			.map(AdTableObject::getCampaignName)
-			.flatMap(amsDataRepository::findByCampaignName)
+		model.addAttribute("stats", amsDataRepository.findByBookTitle(title)
 			.sort(Comparator.comparing(AmsDataObject::getDate))
-			.filter(amsDataObject -> amsDataObject.getClicks().orElse(0.0) > 0.0)
-			.filter(amsDataObject -> amsDataObject.getImpressions().orElse(0.0) > 0.0)
+			.filter(amsDataObject -> amsDataObject.getClicksOrZero() > 0.0)
+			.filter(amsDataObject -> amsDataObject.getImpressionsOrZero() > 0.0)
 			.filter(amsDataObject -> amsDataObject.getDate().isAfter(LocalDate.parse("2018-05-27")))
 			.map(AmsDataDTO::new));
 
@@ -180,6 +203,23 @@ class AdController {
 			.sort(Comparator.comparing(BookDTO::getTitle));
 	}
 
+	/**
+	 * Emit each book's conversions as soon as they're computed, unsorted, with the client's demand pacing the work.
+	 */
+	@GetMapping(path = "/conversionsStream", produces = {
+		MagicSpreadsheetApplication.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+	@ResponseBody
+	Flux<BookDTO> conversionsStream(@RequestParam(name = "window", required = false) Optional<String> window) {
+		return adService.clicksToConvert(since(window.orElse("all")));
+	}
+
+	@GetMapping(path = "/seriesConversionsStream", produces = {
+		MagicSpreadsheetApplication.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+	@ResponseBody
+	Flux<SeriesDTO> seriesConversionsStream(@RequestParam(name = "window", required = false) Optional<String> window) {
+		return adService.clicksToConvertPerSeries(since(window.orElse("all")));
+	}
+
 	@GetMapping("/createAllAds")
 	Mono<String> createAllAds() {
 
@@ -188,6 +228,8 @@ class AdController {
 			.sort(Comparator.comparing(AdTableObject::getCampaignName))
 			.distinct()
 			.flatMap(adTableRepository::save)
+			.collectList()
+			.doOnNext(ads -> datasetEvents.publish(DatasetChangedEvent.ofAds("create-ads", ads)))
 			.then(Mono.just("redirect:/unlinkedAds"));
 	}
 
@@ -195,6 +237,7 @@ class AdController {
 	Mono<String> deleteAllAdData() {
 
 		return adTableRepository.deleteAll()
+			.then(datasetEvents.published(DatasetChangedEvent.everything("delete-ads")))
 			.thenReturn("redirect:/ads");
 	}
 
@@ -204,6 +247,7 @@ class AdController {
 		return amsDataRepository.findById(id)
 			.map(Utils::amsDataToAdData)
 			.flatMap(adTableRepository::save)
+			.doOnNext(ad -> datasetEvents.publish(DatasetChangedEvent.ofAds("create-ads", Collections.singleton(ad))))
 			.then(Mono.just("redirect:/unlinkedAds"));
 	}
 }
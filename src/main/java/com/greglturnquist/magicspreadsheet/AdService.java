@@ -16,16 +16,25 @@
 package com.greglturnquist.magicspreadsheet;
 
 import static com.greglturnquist.magicspreadsheet.Utils.*;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.*;
+import static org.springframework.data.mongodb.core.query.Criteria.*;
+import static org.springframework.data.mongodb.core.query.Query.*;
 import static reactor.function.TupleUtils.*;
 
 import lombok.extern.slf4j.Slf4j;
 
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
@@ -68,6 +77,13 @@ class AdService {
 			.flatMap(book -> clicksToConvert(book, date));
 	}
 
+	Flux<BookDTO> clicksToConvert(Collection<String> titles, Optional<LocalDate> date) {
+
+		return Flux.fromIterable(titles)
+			.flatMap(bookRepository::findByTitle)
+			.flatMap(book -> clicksToConvert(book, date));
+	}
+
 	Flux<SeriesDTO> clicksToConvertPerSeries(Optional<LocalDate> date) {
 
 		return bookRepository.findAll()
@@ -81,11 +97,11 @@ class AdService {
 
 		return Mono.zip(
 			adPerformance(book.getTitle(), date),
-			unitsSold(book.getTitle(), date),
-			totalPagesRead(book.getTitle(), date),
-			totalUnitsSoldViaPageReads(book.getTitle(), date),
+			unitsSold(book, date),
+			totalPagesRead(book, date),
+			totalUnitsSoldViaPageReads(book, date),
 			totalAdSpend(book.getTitle(), date),
-			totalEarnings(book.getTitle(), date),
+			totalEarnings(book, date),
 			seriesReadThrough(book, date))
 
 			.map(function((adPerformance, unitsSold, totalPagedRead, unitsSoldViaPageReads, adSpend, earnings, seriesReadThrough) -> new BookDTO(
@@ -129,11 +145,11 @@ class AdService {
 			.flatMap(nextInSeries ->
 				Mono.zip(
 					Mono.just(book),
-					unitsSold(book.getTitle(), date),
-					totalPagesRead(book.getTitle(), date),
+					unitsSold(book, date),
+					totalPagesRead(book, date),
 					Mono.just(nextInSeries),
-					unitsSold(nextInSeries.getTitle(), date),
-					totalPagesRead(nextInSeries.getTitle(), date)
+					unitsSold(nextInSeries, date),
+					totalPagesRead(nextInSeries, date)
 				))
 			.flatMap(function((firstBook, unitsSoldOfFirstBook, totalPagesReadOfFirstBook,
 							   secondBook, unitsSoldOfSecondBook, totalPagesReadOfSecondBook) ->
@@ -143,152 +159,156 @@ class AdService {
 			.switchIfEmpty(Mono.just(0.0));
 	}
 
-	private Mono<Double> unitsSold(String bookTitle, Optional<LocalDate> date) {
+	/**
+	 * Look up a book's royalties by its normalized title key, falling back to its ASIN when it has one.
+	 */
+	Flux<EbookRoyaltyDataObject> royalties(Book book, Optional<LocalDate> date) {
 
-		return date
-			.map(after -> ebookRoyaltyRepository.findByTitleLikeAndRoyaltyDateAfter(bookTitle, after))
-			.orElse(ebookRoyaltyRepository.findByTitleLike(bookTitle))
+		Criteria criteria = titleKeyOrAsin(book);
+		date.ifPresent(after -> criteria.and("royaltyDate").gt(after));
+
+		return operations.find(query(criteria), EbookRoyaltyDataObject.class);
+	}
+
+	/**
+	 * Look up a book's KENP reads by its normalized title key, falling back to its ASIN when it has one.
+	 */
+	Flux<KenpReadDataObject> pageReads(Book book, Optional<LocalDate> date) {
+
+		Criteria criteria = titleKeyOrAsin(book);
+		date.ifPresent(after -> criteria.and("orderDate").gt(after));
+
+		return operations.find(query(criteria), KenpReadDataObject.class);
+	}
+
+	private static Criteria titleKeyOrAsin(Book book) {
+
+		if (StringUtils.hasText(book.getASIN())) {
+			return new Criteria().orOperator(
+				where("titleKey").is(titleKey(book.getTitle())),
+				where("ASIN").is(book.getASIN()));
+		}
+
+		return where("titleKey").is(titleKey(book.getTitle()));
+	}
+
+	private Mono<Double> unitsSold(Book book, Optional<LocalDate> date) {
+
+		return royalties(book, date)
 			.reduce(0.0, (counter, ebookRoyaltyData) -> counter + ebookRoyaltyData.getNetUnitsSold());
 	}
 
 	private Mono<Double> unitsSoldPerSeries(String seriesName, Optional<LocalDate> date) {
 
 		return bookRepository.findBySeries(seriesName)
-			.map(Book::getTitle)
-			.flatMap(title -> unitsSold(title, date))
+			.flatMap(book -> unitsSold(book, date))
 			.reduce(0.0, (total, unitsSold) -> total + unitsSold);
 	}
 
-	private Mono<Double> totalPagesRead(String bookTitle, Optional<LocalDate> date) {
+	private Mono<Double> totalPagesRead(Book book, Optional<LocalDate> date) {
 
-		return date
-			.map(after -> kenpReadRepository.findByTitleLikeAndOrderDateAfter(bookTitle, after))
-			.orElse(kenpReadRepository.findByTitleLike(bookTitle))
+		return pageReads(book, date)
 			.reduce(0.0, (counter, kenpReadData) -> counter + kenpReadData.getPagesRead());
 	}
 
 	private Mono<Double> totalPagesReadPerSeries(String seriesName, Optional<LocalDate> date) {
 
 		return bookRepository.findBySeries(seriesName)
-			.map(book -> book.getTitle())
-			.flatMap(title -> totalPagesRead(title, date))
+			.flatMap(book -> totalPagesRead(book, date))
 			.reduce(0.0, (total, pagesRead) -> total + pagesRead);
 	}
 
-	private Mono<Double> totalUnitsSoldViaPageReads(String bookTitle, Optional<LocalDate> date) {
+	private Mono<Double> totalUnitsSoldViaPageReads(Book book, Optional<LocalDate> date) {
 
-		return totalPagesRead(bookTitle, date)
-			.flatMap(pagesRead -> bookRepository.findByTitle(bookTitle)
-				.map(book -> book.getKENPC())
-				.map(kenpc -> Utils.unitsSoldViaPageReads(kenpc, pagesRead)));
+		return totalPagesRead(book, date)
+			.map(pagesRead -> Utils.unitsSoldViaPageReads(book.getKENPC(), pagesRead));
 	}
 
 	private Mono<Double> totalUnitsSoldViaPageReadsPerSeries(String seriesName, Optional<LocalDate> date) {
 
 		return bookRepository.findBySeries(seriesName)
-			.map(Book::getTitle)
-			.flatMap(title -> totalUnitsSoldViaPageReads(title, date))
+			.flatMap(book -> totalUnitsSoldViaPageReads(book, date))
 			.reduce(0.0, (total, unitsSold) -> total + unitsSold);
 	}
 
+	/**
+	 * AMS data for a book, using the book title copied onto each row when its campaign was linked.
+	 */
+	private Flux<AmsDataObject> amsData(String bookTitle, Optional<LocalDate> date) {
+
+		return date
+			.map(earliestDate -> amsDataRepository.findByBookTitleAndDateAfter(bookTitle, earliestDate))
+			.orElse(amsDataRepository.findByBookTitle(bookTitle));
+	}
+
+	/**
+	 * AMS data for a series, using the series copied onto each row when its campaign was linked.
+	 */
+	private Flux<AmsDataObject> amsDataPerSeries(String seriesName, Optional<LocalDate> date) {
+
+		return date
+			.map(earliestDate -> amsDataRepository.findBySeriesAndDateAfter(seriesName, earliestDate))
+			.orElse(amsDataRepository.findBySeries(seriesName));
+	}
+
 	private Mono<Double> totalClicks(String bookTitle, Optional<LocalDate> date) {
 
-		return adTableRepository.findByBookTitle(bookTitle)
-			.flatMap(adTableObject -> date
-				.map(earliestDate -> amsDataRepository.findByCampaignNameAndDateAfter(adTableObject.getCampaignName(), earliestDate))
-				.orElse(amsDataRepository.findByCampaignName(adTableObject.getCampaignName())))
-			.reduce(0.0, (counter, amsData) -> amsData.getClicks()
-				.map(theseImpressions -> counter + theseImpressions)
-				.orElse(counter));
+		return sum(amsData(bookTitle, date), AmsDataObject::getClicksOrZero);
 	}
 
 	private Mono<Double> totalImpressions(String bookTitle, Optional<LocalDate> date) {
 
-		return adTableRepository.findByBookTitle(bookTitle)
-			.flatMap(adTableObject -> date
-				.map(earliestDate -> amsDataRepository.findByCampaignNameAndDateAfter(adTableObject.getCampaignName(), earliestDate))
-				.orElse(amsDataRepository.findByCampaignName(adTableObject.getCampaignName())))
-			.reduce(0.0, (counter, amsDataObject) -> amsDataObject.getImpressions()
-				.map(theseImpressions -> counter + theseImpressions)
-				.orElse(counter));
+		return sum(amsData(bookTitle, date), AmsDataObject::getImpressionsOrZero);
 	}
 
 	private Mono<AdPerformanceStats> adPerformance(String bookTitle, Optional<LocalDate> date) {
-
-		return adTableRepository.findByBookTitle(bookTitle)
-			.flatMap(adTableObject -> date
-				.map(earliestDate -> amsDataRepository.findByCampaignNameAndDateAfter(adTableObject.getCampaignName(), earliestDate))
-				.orElse(amsDataRepository.findByCampaignName(adTableObject.getCampaignName())))
-			.reduce(new AdPerformanceStats(0.0, 0.0), (adPerformanceStats, amsDataObject) ->
-				new AdPerformanceStats(
-					amsDataObject.getImpressions()
-						.map(theseImpressions -> adPerformanceStats.getImpressions() + theseImpressions)
-						.orElse(adPerformanceStats.getImpressions()),
-					amsDataObject.getClicks()
-						.map(theseClicks -> adPerformanceStats.getClicks() + theseClicks)
-						.orElse(adPerformanceStats.getClicks())));
+		return adPerformance(amsData(bookTitle, date));
 	}
 
 	private Mono<AdPerformanceStats> adPerformancePerSeries(String seriesName, Optional<LocalDate> date) {
+		return adPerformance(amsDataPerSeries(seriesName, date));
+	}
 
-		return bookRepository.findBySeries(seriesName)
-			.map(Book::getTitle)
-			.flatMap(title -> adPerformance(title, date))
-			.reduce(new AdPerformanceStats(0.0, 0.0),
-				(adPerformanceStats, adPerformanceStats2) -> new AdPerformanceStats(
-					adPerformanceStats.getImpressions() + adPerformanceStats2.getImpressions(),
-					adPerformanceStats.getClicks() + adPerformanceStats2.getClicks()));
+	private static Mono<AdPerformanceStats> adPerformance(Flux<AmsDataObject> amsData) {
+
+		return amsData
+			.collect(() -> new double[2], (totals, amsDataObject) -> {
+				totals[0] += amsDataObject.getImpressionsOrZero();
+				totals[1] += amsDataObject.getClicksOrZero();
+			})
+			.map(totals -> new AdPerformanceStats(totals[0], totals[1]));
 	}
 
 	Mono<Double> totalAdSpend(String bookTitle, Optional<LocalDate> date) {
 
-		return adTableRepository.findByBookTitle(bookTitle)
-			.flatMap(adTableObject -> date
-				.map(earliestDate -> amsDataRepository.findByCampaignNameAndDateAfter(adTableObject.getCampaignName(), earliestDate))
-				.orElse(amsDataRepository.findByCampaignName(adTableObject.getCampaignName())))
-			.reduce(0.0, (totalAdSpend, amsDataObject) -> totalAdSpend +
-				amsDataObject.getClicks().orElse(0.0) * amsDataObject.getAverageCpc().orElse(0.0));
+		return sumMoney(amsData(bookTitle, date), AmsDataObject::getTotalSpendMicros);
 	}
 
 	Mono<Double> totalAdSpendPerSeries(String seriesName, Optional<LocalDate> date) {
 
-		return bookRepository.findBySeries(seriesName)
-			.map(Book::getTitle)
-			.flatMap(title -> totalAdSpend(title, date))
-			.reduce(0.0, (total, adSpend) -> total + adSpend);
+		return sumMoney(amsDataPerSeries(seriesName, date), AmsDataObject::getTotalSpendMicros);
 	}
 
 	Mono<EarningsService.TotalSales> totalAdSpend(String title, LocalDate beginning, LocalDate end) {
 
-		return adTableRepository.findByBookTitle(title)
-			.flatMap(adTableObject -> amsDataRepository.findByCampaignNameAndDateBetween(adTableObject.getCampaignName(), beginning, end))
-			.reduce(0.0, (totalAdSpend, amsDataObject) -> totalAdSpend +
-				amsDataObject.getClicks().orElse(0.0) * amsDataObject.getAverageCpc().orElse(0.0))
+		return sumMoney(amsDataRepository.findByBookTitleAndDateBetween(title, beginning, end), AmsDataObject::getTotalSpendMicros)
 			.map(totalAdSpend -> new EarningsService.TotalSales(end, totalAdSpend));
 	}
 
 	Mono<EarningsService.TotalSales> totalAdSpendPerSeries(String seriesName, LocalDate beginning, LocalDate end) {
 
-		return bookRepository.findBySeries(seriesName)
-			.flatMap(book -> totalAdSpend(book.getTitle(), beginning, end))
-			.reduce(new EarningsService.TotalSales(end, 0.0),
-				(totalSales, totalSales2) -> new EarningsService.TotalSales(end, totalSales.getTotal() + totalSales2.getTotal()));
+		return sumMoney(amsDataRepository.findBySeriesAndDateBetween(seriesName, beginning, end), AmsDataObject::getTotalSpendMicros)
+			.map(totalAdSpend -> new EarningsService.TotalSales(end, totalAdSpend));
 	}
 
-	private Mono<Double> totalEarnings(String bookTitle, Optional<LocalDate> date) {
+	private Mono<Double> totalEarnings(Book book, Optional<LocalDate> date) {
 
-		Mono<Double> totalRoyalties = date
-			.map(date1 -> ebookRoyaltyRepository.findByTitleLikeAndRoyaltyDateAfter(bookTitle, date1))
-			.orElse(ebookRoyaltyRepository.findByTitleLike(bookTitle))
-			.reduce(0.0, (royalties, ebookRoyaltyDataObject) -> royalties + ebookRoyaltyDataObject.getRoyalty());
+		Mono<Double> totalRoyalties = sumMoney(royalties(book, date), EbookRoyaltyDataObject::getRoyaltyMicros);
 
-		Mono<Double> totalPagesRead = date
-			.map(date1 -> kenpReadRepository.findByTitleLikeAndOrderDateAfter(bookTitle, date1))
-			.orElse(kenpReadRepository.findByTitleLike(bookTitle))
-			.reduce(0.0, (pagesRead, kenpReadData) -> pagesRead + kenpReadData.getPagesRead());
+		Mono<Double> totalPagesRead = totalPagesRead(book, date);
 
 		return Mono.zip(totalRoyalties, totalPagesRead, (royalties, pagesRead) -> {
-			log.info(bookTitle + ": Totaling up $" + royalties + " along with " + pagesRead + " pages read");
+			log.info(book.getTitle() + ": Totaling up $" + royalties + " along with " + pagesRead + " pages read");
 			return royalties + pagesRead * KU_RATE;
 		});
 	}
@@ -296,49 +316,74 @@ class AdService {
 	private Mono<Double> totalEarningsPerSeries(String seriesName, Optional<LocalDate> date) {
 
 		return bookRepository.findBySeries(seriesName)
-			.map(Book::getTitle)
-			.flatMap(title -> totalEarnings(title, date))
+			.flatMap(book -> totalEarnings(book, date))
 			.reduce(0.0, (total, earnings) -> total + earnings);
 	}
 
 	Mono<Double> impressions(String title, LocalDate date) {
 
-		return adTableRepository.findByBookTitle(title)
-			.flatMap(adTableObject -> amsDataRepository.findByCampaignNameAndDate(adTableObject.getCampaignName(), date))
-			.reduce(0.0, (total, amsDataObject) -> total + amsDataObject.getImpressions().orElse(0.0));
+		return sum(amsDataRepository.findByBookTitleAndDate(title, date), AmsDataObject::getImpressionsOrZero);
 	}
 
 	Mono<Double> clicks(String title, LocalDate date) {
 
-		return adTableRepository.findByBookTitle(title)
-			.flatMap(adTableObject -> amsDataRepository.findByCampaignNameAndDate(adTableObject.getCampaignName(), date))
-			.reduce(0.0, (total, amsDataObject) -> total + amsDataObject.getClicks().orElse(0.0));
+		return sum(amsDataRepository.findByBookTitleAndDate(title, date), AmsDataObject::getClicksOrZero);
 	}
 
 	Mono<Double> spend(String title, LocalDate date) {
 
-		return adTableRepository.findByBookTitle(title)
-			.flatMap(adTableObject -> amsDataRepository.findByCampaignNameAndDate(adTableObject.getCampaignName(), date))
-			.reduce(0.0, (total, amsDataObject) -> total +
-				amsDataObject.getAverageCpc().orElse(0.0) * amsDataObject.getClicks().orElse(0.0));
+		return sumMoney(amsDataRepository.findByBookTitleAndDate(title, date), AmsDataObject::getTotalSpendMicros);
 	}
 
 	Mono<Long> adCount(String title, LocalDate date) {
 
-		return adTableRepository.findByBookTitle(title)
-			.flatMap(adTableObject -> amsDataRepository.findByCampaignNameAndDate(adTableObject.getCampaignName(), date))
-			.filter(amsDataObject -> amsDataObject.getImpressions().orElse(0.0) >= 1000.0)
+		return amsDataRepository.findByBookTitleAndDate(title, date)
+			.filter(amsDataObject -> amsDataObject.getImpressionsOrZero() >= 1000.0)
 			.count();
 	}
 
+	/**
+	 * Copy an ad's book, and that book's series, onto every AMS row of its campaign.
+	 */
+	Mono<Void> linkAmsData(AdTableObject ad) {
+
+		Mono<Book> book = StringUtils.hasText(ad.getBookTitle())
+			? bookRepository.findByTitle(ad.getBookTitle()).defaultIfEmpty(Book.NONE)
+			: Mono.just(Book.NONE);
+
+		return book
+			.flatMap(linkedBook -> operations.updateMulti(amsDataOf(ad), linkedTo(ad, linkedBook), AmsDataObject.class))
+			.doOnNext(updateResult -> log.info("Linked " + updateResult.getModifiedCount() + " AMS entries for "
+				+ ad.getCampaignName() + " to '" + ad.getBookTitle() + "'"))
+			.then();
+	}
+
+	/**
+	 * Carry a book's (possibly changed) series over to its ads and their AMS data.
+	 */
+	Mono<Void> relinkBook(Book book) {
+
+		Update series = Update.update("series", book.getSeries());
+
+		return Mono.when(
+			operations.updateMulti(query(where("bookTitle").is(book.getTitle())), series, AdTableObject.class),
+			operations.updateMulti(query(where("bookTitle").is(book.getTitle())), series, AmsDataObject.class));
+	}
+
+	/**
+	 * The earliest AMS entry of every campaign that has no ad. Mongo groups the AMS data by campaign (walking the
+	 * campaignName/date index) and anti-joins the campaigns against the ad table, so only one entry per unlinked
+	 * campaign leaves the database.
+	 */
 	Flux<AmsDataObject> unlinkedAmsData() {
 
-		return adTableRepository.findAll()
-			.map(AdTableObject::getCampaignName)
-			.collectList()
-			.flatMapMany(campaigns -> amsDataRepository.findAll()
-				.filter(amsDataObject -> !campaigns.contains(amsDataObject.getCampaignName())))
-			.distinct(AmsDataObject::getCampaignName);
+		return operations.aggregate(newAggregation(AmsDataObject.class,
+			sort(Sort.Direction.ASC, "campaignName", "date"),
+			group("campaignName").first(ROOT).as("amsData"),
+			lookup(operations.getCollectionName(AdTableObject.class), "_id", "campaignName", "ads"),
+			match(where("ads").size(0)),
+			replaceRoot("amsData")),
+			AmsDataObject.class);
 	}
 
 	Flux<AdTableObject> unlinkedAds() {
@@ -347,12 +392,40 @@ class AdService {
 			.filter(adTableObject -> StringUtils.isEmpty(adTableObject.getBookTitle()));
 	}
 
+	/**
+	 * The earliest royalty entry of every title that doesn't belong to a book, matched the same way
+	 * {@link #royalties(Book, Optional)} does: by title key or ASIN.
+	 */
 	Flux<EbookRoyaltyDataObject> unlinkedRoyalties() {
 
 		return bookRepository.findAll()
-			.map(Book::getTitle)
 			.collectList()
-			.flatMapMany(titles -> ebookRoyaltyRepository.findAll()
-				.filter(ebookRoyaltyDataObject -> !titles.contains(mainTitle(ebookRoyaltyDataObject.getTitle()))));
+			.flatMapMany(books -> {
+
+				Set<String> titleKeys = books.stream()
+					.map(book -> titleKey(book.getTitle()))
+					.collect(Collectors.toSet());
+
+				Set<String> asins = books.stream()
+					.map(Book::getASIN)
+					.filter(StringUtils::hasText)
+					.collect(Collectors.toSet());
+
+				return distinctRoyaltyTitles()
+					.filter(royalty -> !titleKeys.contains(royalty.getTitleKey()))
+					.filter(royalty -> !asins.contains(royalty.getASIN()));
+			});
+	}
+
+	/**
+	 * One royalty entry per title key, grouped by Mongo over the titleKey/royaltyDate index.
+	 */
+	Flux<EbookRoyaltyDataObject> distinctRoyaltyTitles() {
+
+		return operations.aggregate(newAggregation(EbookRoyaltyDataObject.class,
+			sort(Sort.Direction.ASC, "titleKey", "royaltyDate"),
+			group("titleKey").first(ROOT).as("royalty"),
+			replaceRoot("royalty")),
+			EbookRoyaltyDataObject.class);
 	}
 }
@@ -22,8 +22,8 @@ import java.time.LocalDate;
 import java.util.Optional;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
-import org.springframework.util.StringUtils;
 
 /**
  * @author Greg Turnquist
@@ -35,21 +35,14 @@ class AdTableObject {
 
 	@Id String id;
 	int rowNum;
-	String campaignName;
+	@Indexed(background = true) String campaignName;
 	String type;
 	LocalDate start;
 	Optional<LocalDate> end;
 	double budget;
-	String bookTitle;
+	@Indexed(background = true) String bookTitle;
 	String series;
 
-	boolean referencesBook(Book book) {
-		return
-			!StringUtils.isEmpty(book.getTitle()) && this.campaignName.contains(book.getTitle())
-			||
-			!StringUtils.isEmpty(book.getBookShort()) && this.campaignName.contains(book.getBookShort());
-	}
-
 	AdTableObject updateAd(Book book) {
 
 		this.setBookTitle(book.getTitle());
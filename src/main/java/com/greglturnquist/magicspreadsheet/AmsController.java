@@ -27,6 +27,7 @@ import java.util.regex.Pattern;
 
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Sort;
 import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.stereotype.Controller;
@@ -36,6 +37,7 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RequestPart;
+import org.thymeleaf.spring5.context.webflux.ReactiveDataDriverContextVariable;
 
 /**
  * @author Greg Turnquist
@@ -46,11 +48,17 @@ class AmsController {
 
 	private final AmsDataRepository amsDataRepository;
 	private final LoaderService loaderService;
+	private final DatasetEvents datasetEvents;
+	private final int rawDataBufferSize;
 
-	AmsController(AmsDataRepository amsDataRepository, LoaderService loaderService) {
+	AmsController(AmsDataRepository amsDataRepository, LoaderService loaderService,
+				  DatasetEvents datasetEvents,
+				  @Value("${magic-spreadsheet.raw-data.buffer-size}") int rawDataBufferSize) {
 		
 		this.amsDataRepository = amsDataRepository;
 		this.loaderService = loaderService;
+		this.datasetEvents = datasetEvents;
+		this.rawDataBufferSize = rawDataBufferSize;
 	}
 
 	@GetMapping("/rawAmsData")
@@ -67,31 +75,35 @@ class AmsController {
 
 		Sort sortByDateAndCampaignName = Sort.by("date", "campaignName");
 
+		Flux<AmsDataDTO> amsData = Flux.empty();
+
 		if ("all".equals(window)) {
 
-			model.addAttribute("amsData", amsDataRepository
+			amsData = amsDataRepository
 				.findAll(sortByDateAndCampaignName)
-				.map(AmsDataDTO::new));
+				.map(AmsDataDTO::new);
 
 		} else if ("90days".equals(window)) {
 
-			model.addAttribute("amsData", amsDataRepository
+			amsData = amsDataRepository
 				.findByDateAfter(LocalDate.now().minusDays(90), sortByDateAndCampaignName)
-				.map(AmsDataDTO::new));
+				.map(AmsDataDTO::new);
 
 		} else if ("30days".equals(window)) {
 
-			model.addAttribute("amsData", amsDataRepository
+			amsData = amsDataRepository
 				.findByDateAfter(LocalDate.now().minusDays(30), sortByDateAndCampaignName)
-				.map(AmsDataDTO::new));
+				.map(AmsDataDTO::new);
 
 		} else if ("15days".equals(window)) {
 
-			model.addAttribute("amsData", amsDataRepository
+			amsData = amsDataRepository
 				.findByDateAfter(LocalDate.now().minusDays(15), sortByDateAndCampaignName)
-				.map(AmsDataDTO::new));
+				.map(AmsDataDTO::new);
 		}
 
+		model.addAttribute("amsData", new ReactiveDataDriverContextVariable(amsData, rawDataBufferSize));
+
 		return Mono.just("rawAmsData");
 	}
 
@@ -124,6 +136,7 @@ class AmsController {
 
 		return amsDataRepository.deleteAll()
 			.log("delete-all-amsData")
+			.then(datasetEvents.published(DatasetChangedEvent.everything("delete-ams-data")))
 			.thenReturn("redirect:/rawAmsData");
 	}
 
@@ -15,23 +15,39 @@
  */
 package com.greglturnquist.magicspreadsheet;
 
-import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 import java.time.LocalDate;
 import java.util.Optional;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 /**
+ * Impressions, clicks and average CPC are plain {@code double}s, with {@link #ABSENT} (NaN) standing in for a value
+ * the report didn't have, so summing them up never allocates. The {@link Optional} accessors remain for callers that
+ * want to tell the difference.
+ *
  * @author Greg Turnquist
  */
 @Data
-@AllArgsConstructor
+@NoArgsConstructor
+@CompoundIndexes({
+	@CompoundIndex(name = "campaignName_date", def = "{'campaignName': 1, 'date': 1}", background = true),
+	@CompoundIndex(name = "campaignName_status", def = "{'campaignName': 1, 'status': 1}", background = true),
+	@CompoundIndex(name = "date_campaignName_id", def = "{'date': 1, 'campaignName': 1, '_id': 1}", background = true),
+	@CompoundIndex(name = "date_startDate_campaignName", def = "{'date': 1, 'startDate': 1, 'campaignName': 1}", background = true),
+	@CompoundIndex(name = "bookTitle_date", def = "{'bookTitle': 1, 'date': 1}", background = true),
+	@CompoundIndex(name = "series_date", def = "{'series': 1, 'date': 1}", background = true)
+})
 @Document
 class AmsDataObject {
 
+	static final double ABSENT = Double.NaN;
+
 	@Id String id;
 	int rowNum;
 	String status;
@@ -41,25 +57,103 @@ class AmsDataObject {
 	Optional<LocalDate> endDate;
 	double budget;
 	double totalSpend;
-	Optional<Double> impressions;
-	Optional<Double> rawImpressions;
-	Optional<Double> clicks;
-	Optional<Double> rawClicks;
-	Optional<Double> averageCpc;
+	double impressions = ABSENT;
+	double rawImpressions = ABSENT;
+	double clicks = ABSENT;
+	double rawClicks = ABSENT;
+	double averageCpc = ABSENT;
 	LocalDate date;
 	Optional<LocalDate> previousDate;
 	Optional<LocalDate> nextDate;
+	String bookTitle;
+	String series;
+
+	AmsDataObject(String id, int rowNum, String status, String campaignName, String type, LocalDate startDate,
+				  Optional<LocalDate> endDate, double budget, double totalSpend, Optional<Double> impressions,
+				  Optional<Double> rawImpressions, Optional<Double> clicks, Optional<Double> rawClicks,
+				  Optional<Double> averageCpc, LocalDate date, Optional<LocalDate> previousDate,
+				  Optional<LocalDate> nextDate, String bookTitle, String series) {
+
+		this.id = id;
+		this.rowNum = rowNum;
+		this.status = status;
+		this.campaignName = campaignName;
+		this.type = type;
+		this.startDate = startDate;
+		this.endDate = endDate;
+		this.budget = budget;
+		this.totalSpend = totalSpend;
+		this.impressions = impressions.orElse(ABSENT);
+		this.rawImpressions = rawImpressions.orElse(ABSENT);
+		this.clicks = clicks.orElse(ABSENT);
+		this.rawClicks = rawClicks.orElse(ABSENT);
+		this.averageCpc = averageCpc.orElse(ABSENT);
+		this.date = date;
+		this.previousDate = previousDate;
+		this.nextDate = nextDate;
+		this.bookTitle = bookTitle;
+		this.series = series;
+	}
+
+	public Optional<Double> getImpressions() {
+		return present(this.impressions);
+	}
 
+	public Optional<Double> getRawImpressions() {
+		return present(this.rawImpressions);
+	}
+
+	public Optional<Double> getClicks() {
+		return present(this.clicks);
+	}
+
+	/**
+	 * Data loaded before raw clicks were kept only has clicks.
+	 */
 	public Optional<Double> getRawClicks() {
+		return present(Double.isNaN(this.rawClicks) ? this.clicks : this.rawClicks);
+	}
+
+	public Optional<Double> getAverageCpc() {
+		return present(this.averageCpc);
+	}
 
-		if (this.rawClicks == null) {
-			return this.clicks;
-		} else {
-			return this.rawClicks;
-		}
+	/**
+	 * Total spend in whole millionths, for adding up without drift.
+	 */
+	long getTotalSpendMicros() {
+		return CompactEncoding.toMicros(this.totalSpend);
+	}
+
+	double getImpressionsOrZero() {
+		return orZero(this.impressions);
+	}
+
+	double getRawImpressionsOrZero() {
+		return orZero(this.rawImpressions);
+	}
+
+	double getClicksOrZero() {
+		return orZero(this.clicks);
+	}
+
+	double getRawClicksOrZero() {
+		return orZero(Double.isNaN(this.rawClicks) ? this.clicks : this.rawClicks);
+	}
+
+	double getAverageCpcOrZero() {
+		return orZero(this.averageCpc);
 	}
 
 	public double getTotalSpend() {
-		return this.averageCpc.orElse(0.0) * this.clicks.orElse(0.0);
+		return getAverageCpcOrZero() * getClicksOrZero();
+	}
+
+	private static Optional<Double> present(double value) {
+		return Double.isNaN(value) ? Optional.empty() : Optional.of(value);
+	}
+
+	private static double orZero(double value) {
+		return Double.isNaN(value) ? 0.0 : value;
 	}
 }
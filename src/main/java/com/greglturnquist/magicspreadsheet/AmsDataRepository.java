@@ -16,6 +16,7 @@
 package com.greglturnquist.magicspreadsheet;
 
 import java.time.LocalDate;
+import java.util.Collection;
 
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -44,4 +45,20 @@ interface AmsDataRepository extends ReactiveMongoRepository<AmsDataObject, Strin
 	Mono<Boolean> existsByCampaignNameAndDateAfter(String campaignName, LocalDate date);
 
 	Flux<AmsDataObject> findByCampaignNameAndDateBetween(String campaignName, LocalDate beginning, LocalDate end);
+
+	Flux<AmsDataObject> findByCampaignNameIn(Collection<String> campaignNames, Sort sort);
+
+	Flux<AmsDataObject> findByBookTitle(String bookTitle);
+
+	Flux<AmsDataObject> findByBookTitleAndDate(String bookTitle, LocalDate date);
+
+	Flux<AmsDataObject> findByBookTitleAndDateAfter(String bookTitle, LocalDate date);
+
+	Flux<AmsDataObject> findByBookTitleAndDateBetween(String bookTitle, LocalDate beginning, LocalDate end);
+
+	Flux<AmsDataObject> findBySeries(String series);
+
+	Flux<AmsDataObject> findBySeriesAndDateAfter(String series, LocalDate date);
+
+	Flux<AmsDataObject> findBySeriesAndDateBetween(String series, LocalDate beginning, LocalDate end);
 }
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.magicspreadsheet;
+
+import static java.nio.charset.StandardCharsets.*;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.bson.Document;
+import reactor.core.publisher.Flux;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.data.mapping.PropertyHandler;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Every collection as one zip of CSV or NDJSON files, for backups and for loading into other tools.
+ *
+ * Each collection's documents are read raw off its cursor and written into the zip as they arrive, and the zip goes
+ * out a chunk at a time through a {@link DataBufferPipe}, so nothing is ever held in memory as a whole. Archives run
+ * on the {@link ExportExecutor} like the spreadsheet export.
+ *
+ * @author Greg Turnquist
+ */
+@RestController
+@Slf4j
+class ArchiveController {
+
+	static final MediaType ZIP = MediaType.parseMediaType("application/zip");
+
+	private final ReactiveMongoOperations operations;
+	private final MongoMappingContext mappingContext;
+	private final ObjectMapper objectMapper;
+	private final ExportExecutor exportExecutor;
+
+	ArchiveController(ReactiveMongoOperations operations,
+					  MongoMappingContext mappingContext,
+					  ObjectMapper objectMapper,
+					  ExportExecutor exportExecutor) {
+
+		this.operations = operations;
+		this.mappingContext = mappingContext;
+		this.objectMapper = objectMapper;
+		this.exportExecutor = exportExecutor;
+	}
+
+	/**
+	 * @param format {@literal ndjson} (the default) or {@literal csv}
+	 */
+	@GetMapping("/export/archive")
+	ResponseEntity<Flux<DataBuffer>> archive(@RequestParam(name = "format", defaultValue = "ndjson") String format) {
+
+		ArchiveFormat archiveFormat = ArchiveFormat.of(format);
+
+		String filename = "magic-spreadsheet-archive-" + LocalDate.now() + ".zip";
+
+		return ResponseEntity.ok()
+			.header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
+			.contentType(ZIP)
+			.body(exportExecutor.execute(exporter -> DataBufferPipe.stream(outputStream -> {
+				log.info("Writing " + archiveFormat + " archive to the response...");
+				writeArchive(outputStream, archiveFormat);
+				log.info("Completed writing " + archiveFormat + " archive to the response...");
+			}, exporter)));
+	}
+
+	private void writeArchive(OutputStream outputStream, ArchiveFormat format) throws IOException {
+
+		ZipOutputStream zip = new ZipOutputStream(outputStream, UTF_8);
+
+		for (Class<?> documentType : IndexService.DOCUMENTS) {
+
+			String collectionName = operations.getCollectionName(documentType);
+
+			zip.putNextEntry(new ZipEntry(collectionName + format.extension));
+
+			// Flushed rather than closed at the end of each entry, since closing would close the zip as well
+			Writer writer = new BufferedWriter(new OutputStreamWriter(zip, UTF_8));
+
+			if (format == ArchiveFormat.CSV) {
+				writeCsv(writer, documentType, collectionName);
+			} else {
+				writeNdjson(writer, collectionName);
+			}
+
+			writer.flush();
+			zip.closeEntry();
+		}
+
+		zip.finish();
+	}
+
+	private void writeNdjson(Writer writer, String collectionName) throws IOException {
+
+		for (Document document : documents(collectionName)) {
+			writer.write(objectMapper.writeValueAsString(RawDataApiController.toJson(document)));
+			writer.write('\n');
+		}
+	}
+
+	/**
+	 * One column per mapped property, so every file has the same header no matter which fields its documents happen
+	 * to have.
+	 */
+	private void writeCsv(Writer writer, Class<?> documentType, String collectionName) throws IOException {
+
+		List<String> columns = new ArrayList<>();
+
+		mappingContext.getRequiredPersistentEntity(documentType).doWithProperties((PropertyHandler<MongoPersistentProperty>) property ->
+			columns.add(property.isIdProperty() ? "id" : property.getFieldName()));
+
+		CSVPrinter printer = new CSVPrinter(writer, CSVFormat.DEFAULT.withHeader(columns.toArray(new String[0])));
+
+		for (Document document : documents(collectionName)) {
+
+			Map<String, Object> json = RawDataApiController.toJson(document);
+
+			for (String column : columns) {
+				printer.print(json.get(column));
+			}
+			printer.println();
+		}
+
+		printer.flush();
+	}
+
+	/**
+	 * Blocks the writer's thread on the cursor, which is fine, since that thread belongs to this archive alone.
+	 */
+	private Iterable<Document> documents(String collectionName) {
+		return operations.findAll(Document.class, collectionName).toIterable();
+	}
+
+	enum ArchiveFormat {
+
+		NDJSON(".ndjson"),
+		CSV(".csv");
+
+		private final String extension;
+
+		ArchiveFormat(String extension) {
+			this.extension = extension;
+		}
+
+		static ArchiveFormat of(String format) {
+
+			return Arrays.stream(values())
+				.filter(archiveFormat -> archiveFormat.name().equalsIgnoreCase(format))
+				.findFirst()
+				.orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown archive format " + format));
+		}
+	}
+}
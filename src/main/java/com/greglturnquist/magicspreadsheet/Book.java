@@ -19,6 +19,8 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 /**
@@ -26,13 +28,14 @@ import org.springframework.data.mongodb.core.mapping.Document;
  */
 @Data
 @AllArgsConstructor
+@CompoundIndex(name = "series_seriesNumber", def = "{'series': 1, 'seriesNumber': 1}", background = true)
 @Document
 class Book {
 
 	@Id String id;
 	int rowNum;
 	long number;
-	String title;
+	@Indexed(background = true) String title;
 	String subTitle;
 	String author;
 	String bookShort;
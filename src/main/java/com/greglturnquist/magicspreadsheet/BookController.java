@@ -19,7 +19,9 @@ import static com.greglturnquist.magicspreadsheet.Utils.*;
 
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.stream.Collectors;
 
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -40,12 +42,15 @@ class BookController {
 	private final BookRepository bookRepository;
 	private final AdTableRepository adTableRepository;
 	private final AdService adService;
+	private final DatasetEvents datasetEvents;
 
-	BookController(BookRepository bookRepository, AdTableRepository adTableRepository, AdService adService) {
+	BookController(BookRepository bookRepository, AdTableRepository adTableRepository, AdService adService,
+				   DatasetEvents datasetEvents) {
 
 		this.bookRepository = bookRepository;
 		this.adTableRepository = adTableRepository;
 		this.adService = adService;
+		this.datasetEvents = datasetEvents;
 	}
 	
 	@GetMapping("/books")
@@ -69,6 +74,8 @@ class BookController {
 				return book;
 			})
 			.flatMap(bookRepository::save)
+			.flatMap(adService::relinkBook)
+			.then(datasetEvents.published(DatasetChangedEvent.ofTitle("book-details", bookShort.getBookTitle())))
 			.then(Mono.just("redirect:/books"));
 	}
 
@@ -80,6 +87,9 @@ class BookController {
 			.sort(Comparator.comparing(Book::getTitle))
 			.distinct()
 			.flatMap(bookRepository::save)
+			.map(Book::getTitle)
+			.collect(Collectors.toSet())
+			.doOnNext(titles -> datasetEvents.publish(DatasetChangedEvent.of("create-books", titles, Collections.emptySet())))
 			.then(Mono.just("redirect:/unlinkedAds"));
 	}
 
@@ -88,13 +98,16 @@ class BookController {
 
 		if (adLinkingParams.getBookTitle().contains("bestGuess")) {
 
+			Mono<BookMatcher> bookMatcher = BookMatcher.of(bookRepository.findAll());
+
 			return Flux.fromIterable(adLinkingParams.getAdIds())
 				.flatMap(id -> adTableRepository.findById(id)
-					.flatMapMany(ad -> bestGuess(bookRepository.findAll(), ad)
-						.map(Book::getTitle)
-						.flatMap(bookTitle -> bookRepository.findByTitle(bookTitle).zipWith(Mono.just(ad)))))
+					.flatMap(ad -> bestGuess(bookMatcher, ad)
+						.filter(book -> book != Book.NONE)
+						.zipWith(Mono.just(ad))))
 				.map(objects -> objects.getT2().updateAd(objects.getT1()))
 				.flatMap(adTableRepository::save)
+				.as(this::linkAmsData)
 				.then(Mono.just("redirect:/unlinkedAds"));
 		}
 
@@ -115,6 +128,7 @@ class BookController {
 			.flatMapMany(book -> Flux.fromIterable(adLinkingParams.getAdIds())
 				.flatMap(id -> adTableRepository.findById(id).zipWith(Mono.just(book))))
 			.flatMap(objects -> adTableRepository.save(objects.getT1().updateAd(objects.getT2())))
+			.as(this::linkAmsData)
 			.then(Mono.just("redirect:/unlinkedAds"));
 	}
 
@@ -124,6 +138,7 @@ class BookController {
 		return Mono.when(
 			bookRepository.deleteByTitle(bookShort.getBookTitle()),
 			wipeOutBookReferencesInAds(bookShort.getBookTitle()))
+			.then(datasetEvents.published(DatasetChangedEvent.ofTitle("delete-book", bookShort.getBookTitle())))
 			.then(Mono.just("redirect:/books"));
 	}
 
@@ -135,6 +150,19 @@ class BookController {
 				adTableObject.setSeries("");
 				return adTableRepository.save(adTableObject);
 			})
+			.flatMap(adService::linkAmsData)
+			.then();
+	}
+
+	/**
+	 * Bring the AMS data of freshly linked ads along, then announce the change.
+	 */
+	private Mono<Void> linkAmsData(Flux<AdTableObject> ads) {
+
+		return ads
+			.flatMap(ad -> adService.linkAmsData(ad).thenReturn(ad))
+			.collectList()
+			.doOnNext(linked -> datasetEvents.publish(DatasetChangedEvent.ofAds("link-ads", linked)))
 			.then();
 	}
 }
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.magicspreadsheet;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import org.springframework.util.StringUtils;
+
+/**
+ * Finds which book a campaign name refers to by looking for every book's title and short name inside it.
+ *
+ * All titles and short names go into one Aho-Corasick automaton, so each campaign name is matched in a single
+ * pass no matter how many books there are. When several books match, the longest title or short name wins, and
+ * among equally long ones the one appearing first in the campaign name.
+ *
+ * @author Greg Turnquist
+ */
+class BookMatcher {
+
+	private final Node root = new Node(0);
+
+	BookMatcher(List<Book> books) {
+
+		books.stream()
+			.sorted(Comparator.comparing(Book::getTitle, Comparator.nullsFirst(Comparator.naturalOrder())))
+			.forEach(book -> {
+				add(book.getTitle(), book);
+				add(book.getBookShort(), book);
+			});
+
+		linkFailures();
+	}
+
+	/**
+	 * Build a matcher from the books once, and share it with every subscriber.
+	 */
+	static Mono<BookMatcher> of(Flux<Book> books) {
+
+		return books
+			.collectList()
+			.map(BookMatcher::new)
+			.cache();
+	}
+
+	Optional<Book> bestMatch(String campaignName) {
+
+		if (campaignName == null) {
+			return Optional.empty();
+		}
+
+		Node node = this.root;
+		Node best = null;
+
+		for (char c : campaignName.toCharArray()) {
+
+			while (node != this.root && !node.children.containsKey(c)) {
+				node = node.failure;
+			}
+			node = node.children.getOrDefault(c, this.root);
+
+			Node longestEndingHere = node.book != null ? node : node.output;
+
+			if (longestEndingHere != null && (best == null || longestEndingHere.depth > best.depth)) {
+				best = longestEndingHere;
+			}
+		}
+
+		return Optional.ofNullable(best).map(match -> match.book);
+	}
+
+	private void add(String pattern, Book book) {
+
+		if (StringUtils.isEmpty(pattern)) {
+			return;
+		}
+
+		Node node = this.root;
+
+		for (char c : pattern.toCharArray()) {
+			int depth = node.depth + 1;
+			node = node.children.computeIfAbsent(c, character -> new Node(depth));
+		}
+
+		if (node.book == null) {
+			node.book = book;
+		}
+	}
+
+	/**
+	 * Breadth-first, point every node at the longest proper suffix of it that is also in the trie, and at the
+	 * longest pattern among those suffixes.
+	 */
+	private void linkFailures() {
+
+		Queue<Node> queue = new ArrayDeque<>();
+
+		this.root.children.values().forEach(child -> {
+			child.failure = this.root;
+			queue.add(child);
+		});
+
+		while (!queue.isEmpty()) {
+
+			Node node = queue.remove();
+
+			node.children.forEach((c, child) -> {
+
+				Node failure = node.failure;
+				while (failure != null && !failure.children.containsKey(c)) {
+					failure = failure.failure;
+				}
+
+				child.failure = failure == null ? this.root : failure.children.get(c);
+				child.output = child.failure.book != null ? child.failure : child.failure.output;
+
+				queue.add(child);
+			});
+		}
+	}
+
+	private static class Node {
+
+		private final Map<Character, Node> children = new HashMap<>();
+		private final int depth;
+
+		private Node failure;
+		private Node output;
+		private Book book;
+
+		Node(int depth) {
+			this.depth = depth;
+		}
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.magicspreadsheet;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.bson.Document;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.data.convert.ReadingConverter;
+import org.springframework.data.convert.WritingConverter;
+
+/**
+ * An optional, more compact way to store money and dates, turned on with {@literal magic-spreadsheet.storage.compact}.
+ *
+ * Money (budget, spend, CPC and royalty) is stored as a {@code long} count of millionths. Spend and royalties are
+ * always added up in millionths too ({@link Utils#sumMoney}), whichever way they're stored, so the totals are exact.
+ * Dates are stored as an {@code int} count of days since the epoch, so they take less room in documents and
+ * indexes and compare as integers. Both are read back whichever way they were stored, so data can be migrated while
+ * the app is running.
+ *
+ * @author Greg Turnquist
+ */
+class CompactEncoding {
+
+	static final long MICROS_PER_UNIT = 1_000_000L;
+
+	static final Set<String> MONEY_FIELDS = new HashSet<>(Arrays.asList(
+		"budget", "totalSpend", "averageCpc", "royalty"));
+
+	static final Set<String> DATE_FIELDS = new HashSet<>(Arrays.asList(
+		"date", "startDate", "endDate", "previousDate", "nextDate", "start", "end", "royaltyDate", "orderDate"));
+
+	private CompactEncoding() {
+	}
+
+	/**
+	 * The converters to register with Spring Data. Epoch days can always be read, but dates are only written that
+	 * way, in documents and in queries alike, when compact storage is on.
+	 */
+	static List<Converter<?, ?>> converters(boolean compact) {
+
+		return compact
+			? Arrays.<Converter<?, ?>> asList(LocalDateToEpochDay.INSTANCE, EpochDayToLocalDate.INSTANCE)
+			: Arrays.<Converter<?, ?>> asList(EpochDayToLocalDate.INSTANCE);
+	}
+
+	/**
+	 * Encode the money in a document about to be saved. Absent amounts (NaN) are left as they are.
+	 */
+	static void encodeMoney(Document document) {
+
+		MONEY_FIELDS.forEach(field -> {
+			Object value = document.get(field);
+			if (value instanceof Double && !((Double) value).isNaN()) {
+				document.put(field, toMicros((Double) value));
+			}
+		});
+	}
+
+	/**
+	 * Decode the money in a document just loaded, before it's mapped.
+	 */
+	static void decodeMoney(Document document) {
+
+		MONEY_FIELDS.forEach(field -> {
+			Object value = document.get(field);
+			if (value instanceof Long) {
+				document.put(field, fromMicros((Long) value));
+			}
+		});
+	}
+
+	/**
+	 * A stored value as it should look to someone reading the raw document: money as a plain amount and dates as
+	 * dates, however they were stored, and a number marked {@link AmsDataObject#ABSENT absent} as {@literal null}.
+	 */
+	static Object decode(String field, Object value) {
+
+		if (value instanceof Double && ((Double) value).isNaN()) {
+			return null;
+		}
+
+		if (MONEY_FIELDS.contains(field) && value instanceof Long) {
+			return fromMicros((Long) value);
+		}
+
+		if (DATE_FIELDS.contains(field) && value instanceof Integer) {
+			return LocalDate.ofEpochDay((Integer) value);
+		}
+
+		if (value instanceof Date) {
+			return localDate((Date) value);
+		}
+
+		return value;
+	}
+
+	static long toMicros(double amount) {
+		return Math.round(amount * MICROS_PER_UNIT);
+	}
+
+	static double fromMicros(long micros) {
+		return (double) micros / MICROS_PER_UNIT;
+	}
+
+	/**
+	 * The day Spring Data's own {@link LocalDate} to {@link Date} conversion would have stored, at the start of the
+	 * day in the default time zone.
+	 */
+	static LocalDate localDate(Date date) {
+		return date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+	}
+
+	static Date date(LocalDate localDate) {
+		return Date.from(localDate.atStartOfDay(ZoneId.systemDefault()).toInstant());
+	}
+
+	@WritingConverter
+	enum LocalDateToEpochDay implements Converter<LocalDate, Integer> {
+
+		INSTANCE;
+
+		@Override
+		public Integer convert(LocalDate source) {
+			return Math.toIntExact(source.toEpochDay());
+		}
+	}
+
+	@ReadingConverter
+	enum EpochDayToLocalDate implements Converter<Integer, LocalDate> {
+
+		INSTANCE;
+
+		@Override
+		public LocalDate convert(Integer source) {
+			return LocalDate.ofEpochDay(source);
+		}
+	}
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.magicspreadsheet;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterLoadEvent;
+import org.springframework.data.mongodb.core.mapping.event.BeforeSaveEvent;
+import org.springframework.stereotype.Component;
+
+/**
+ * Store money as millionths when {@link CompactEncoding compact storage} is on, and always read it back as a plain
+ * amount, whichever way it was stored.
+ *
+ * @author Greg Turnquist
+ */
+@Component
+class CompactMoneyListener extends AbstractMongoEventListener<Object> {
+
+	private final boolean compact;
+
+	CompactMoneyListener(@Value("${magic-spreadsheet.storage.compact}") boolean compact) {
+		this.compact = compact;
+	}
+
+	@Override
+	public void onBeforeSave(BeforeSaveEvent<Object> event) {
+
+		if (compact && event.getDocument() != null) {
+			CompactEncoding.encodeMoney(event.getDocument());
+		}
+	}
+
+	@Override
+	public void onAfterLoad(AfterLoadEvent<Object> event) {
+		CompactEncoding.decodeMoney(event.getDocument());
+	}
+}
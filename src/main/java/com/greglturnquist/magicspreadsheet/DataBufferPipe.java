@@ -0,0 +1,169 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.magicspreadsheet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Operators;
+import reactor.core.scheduler.Scheduler;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+/**
+ * Turn something that writes to an {@link OutputStream}, like {@code Workbook.write}, into a {@link Flux} of
+ * {@link DataBuffer}s that can be handed straight to the response.
+ *
+ * The writer runs on the given {@link Scheduler} and is held up whenever it gets ahead of the client's demand, so no
+ * more than the requested chunks are ever in memory. If the client goes away, the writer's next write fails and it
+ * stops.
+ *
+ * @author Greg Turnquist
+ */
+class DataBufferPipe {
+
+	static final int CHUNK_SIZE = 64 * 1024;
+
+	private static final DataBufferFactory BUFFER_FACTORY = new DefaultDataBufferFactory();
+
+	@FunctionalInterface
+	interface StreamWriter {
+		void writeTo(OutputStream outputStream) throws IOException;
+	}
+
+	static Flux<DataBuffer> stream(StreamWriter writer, Scheduler scheduler) {
+
+		return Flux.create(sink -> {
+
+			PipeOutputStream outputStream = new PipeOutputStream(sink);
+
+			sink.onRequest(outputStream::request);
+			sink.onDispose(outputStream::cancel);
+
+			scheduler.schedule(() -> {
+				try {
+					writer.writeTo(outputStream);
+					outputStream.close();
+					sink.complete();
+				} catch (IOException|RuntimeException e) {
+					if (!outputStream.isCancelled()) {
+						sink.error(e);
+					}
+				}
+			});
+		});
+	}
+
+	private static class PipeOutputStream extends OutputStream {
+
+		private final FluxSink<DataBuffer> sink;
+		private final byte[] chunk = new byte[CHUNK_SIZE];
+
+		private int position = 0;
+		private long requested = 0;
+		private boolean cancelled = false;
+
+		PipeOutputStream(FluxSink<DataBuffer> sink) {
+			this.sink = sink;
+		}
+
+		synchronized void request(long n) {
+
+			this.requested = Operators.addCap(this.requested, n);
+			notifyAll();
+		}
+
+		synchronized void cancel() {
+
+			this.cancelled = true;
+			notifyAll();
+		}
+
+		synchronized boolean isCancelled() {
+			return this.cancelled;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+
+			if (this.position == this.chunk.length) {
+				emit();
+			}
+			this.chunk[this.position++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+
+			while (length > 0) {
+
+				if (this.position == this.chunk.length) {
+					emit();
+				}
+
+				int copied = Math.min(length, this.chunk.length - this.position);
+				System.arraycopy(bytes, offset, this.chunk, this.position, copied);
+
+				this.position += copied;
+				offset += copied;
+				length -= copied;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+
+			if (this.position > 0) {
+				emit();
+			}
+		}
+
+		/**
+		 * Wait for the client to ask for another chunk, then hand over what's been written so far.
+		 */
+		private void emit() throws IOException {
+
+			synchronized (this) {
+
+				while (this.requested == 0 && !this.cancelled) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new IOException("Interrupted while waiting for the client", e);
+					}
+				}
+
+				if (this.cancelled) {
+					throw new IOException("Client cancelled the download");
+				}
+
+				if (this.requested != Long.MAX_VALUE) {
+					this.requested--;
+				}
+			}
+
+			DataBuffer buffer = BUFFER_FACTORY.allocateBuffer(this.position);
+			buffer.write(this.chunk, 0, this.position);
+			this.position = 0;
+
+			this.sink.next(buffer);
+		}
+	}
+}
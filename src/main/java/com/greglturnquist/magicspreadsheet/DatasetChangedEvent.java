@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.magicspreadsheet;
+
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.springframework.util.StringUtils;
+
+/**
+ * What an import or normalization touched: the titles of affected books and the affected campaign names, or
+ * {@code everything} when the whole dataset was dropped or replaced.
+ *
+ * @author Greg Turnquist
+ */
+@Value
+@RequiredArgsConstructor
+class DatasetChangedEvent {
+
+	private final String source;
+	private final boolean everything;
+	private final Set<String> titles;
+	private final Set<String> campaigns;
+
+	static DatasetChangedEvent everything(String source) {
+		return new DatasetChangedEvent(source, true, Collections.emptySet(), Collections.emptySet());
+	}
+
+	static DatasetChangedEvent of(String source, Set<String> titles, Set<String> campaigns) {
+		return new DatasetChangedEvent(source, false, titles, campaigns);
+	}
+
+	/**
+	 * The ads themselves changed, and with them whichever books they're linked to.
+	 */
+	static DatasetChangedEvent ofAds(String source, Collection<AdTableObject> ads) {
+
+		return of(source,
+			ads.stream().map(AdTableObject::getBookTitle).filter(StringUtils::hasText).collect(Collectors.toSet()),
+			ads.stream().map(AdTableObject::getCampaignName).collect(Collectors.toSet()));
+	}
+
+	static DatasetChangedEvent ofTitle(String source, String title) {
+		return of(source, Collections.singleton(title), Collections.emptySet());
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.magicspreadsheet;
+
+import lombok.extern.slf4j.Slf4j;
+
+import reactor.core.publisher.DirectProcessor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxProcessor;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import org.springframework.stereotype.Service;
+
+/**
+ * Broadcast {@link DatasetChangedEvent}s to whoever is listening at the time, so open pages can refresh what an
+ * import changed instead of polling. Every event also bumps the {@link DatasetVersion}.
+ *
+ * @author Greg Turnquist
+ */
+@Service
+@Slf4j
+class DatasetEvents {
+
+	private final FluxProcessor<DatasetChangedEvent, DatasetChangedEvent> processor =
+		DirectProcessor.<DatasetChangedEvent> create().serialize();
+
+	private final FluxSink<DatasetChangedEvent> sink = this.processor.sink();
+
+	private final DatasetVersion datasetVersion;
+
+	DatasetEvents(DatasetVersion datasetVersion) {
+		this.datasetVersion = datasetVersion;
+	}
+
+	void publish(DatasetChangedEvent event) {
+
+		datasetVersion.bump();
+
+		log.info("Dataset changed to version " + datasetVersion.current() + " => " + event);
+		this.sink.next(event);
+	}
+
+	Mono<Void> published(DatasetChangedEvent event) {
+		return Mono.fromRunnable(() -> publish(event));
+	}
+
+	/**
+	 * Events are rare, so a slow listener just buffers them rather than holding up the import that published them.
+	 */
+	Flux<DatasetChangedEvent> events() {
+		return this.processor.onBackpressureBuffer();
+	}
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.magicspreadsheet;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.stereotype.Service;
+
+/**
+ * A number that goes up every time the data behind the reports changes, used to validate cached reports.
+ *
+ * It starts from the clock so a restart never hands out a version an earlier run already used. The reports' windows
+ * are relative to today, so the day is part of the ETag too.
+ *
+ * @author Greg Turnquist
+ */
+@Service
+class DatasetVersion {
+
+	private final AtomicLong version = new AtomicLong(System.currentTimeMillis());
+
+	private volatile Instant lastModified = Instant.now();
+
+	void bump() {
+
+		this.lastModified = Instant.now();
+		this.version.incrementAndGet();
+	}
+
+	long current() {
+		return this.version.get();
+	}
+
+	String etag() {
+		return "\"" + current() + "-" + LocalDate.now() + "\"";
+	}
+
+	Instant lastModified() {
+
+		Instant startOfToday = LocalDate.now().atStartOfDay(ZoneId.systemDefault()).toInstant();
+		Instant lastChange = this.lastModified.truncatedTo(ChronoUnit.SECONDS);
+
+		return lastChange.isAfter(startOfToday) ? lastChange : startOfToday;
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.magicspreadsheet;
+
+import java.util.Arrays;
+import java.util.List;
+
+import reactor.core.publisher.Mono;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+/**
+ * Answer conditional GETs for the reports from the {@link DatasetVersion} alone, so a browser revisiting a report
+ * after nothing was imported gets a 304 without a single query going to MongoDB.
+ *
+ * @author Greg Turnquist
+ */
+@Component
+class DatasetVersionFilter implements WebFilter {
+
+	private static final PathPatternParser PARSER = new PathPatternParser();
+
+	static final List<PathPattern> REPORTS = Arrays.asList(
+		PARSER.parse("/conversions"),
+		PARSER.parse("/seriesConversions"),
+		PARSER.parse("/individualReport/{title}"),
+		PARSER.parse("/exportMagicSpreadsheet"));
+
+	private final DatasetVersion datasetVersion;
+
+	DatasetVersionFilter(DatasetVersion datasetVersion) {
+		this.datasetVersion = datasetVersion;
+	}
+
+	@Override
+	public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+
+		if (!HttpMethod.GET.equals(exchange.getRequest().getMethod())
+			|| REPORTS.stream().noneMatch(report -> report.matches(exchange.getRequest().getPath().pathWithinApplication()))) {
+			return chain.filter(exchange);
+		}
+
+		// Always revalidate, since an import can land at any moment.
+		exchange.getResponse().getHeaders().setCacheControl("no-cache");
+
+		if (exchange.checkNotModified(datasetVersion.etag(), datasetVersion.lastModified())) {
+			return exchange.getResponse().setComplete();
+		}
+
+		return chain.filter(exchange);
+	}
+}
@@ -15,6 +15,7 @@
  */
 package com.greglturnquist.magicspreadsheet;
 
+import static com.greglturnquist.magicspreadsheet.Utils.*;
 import static reactor.function.TupleUtils.function;
 
 import lombok.RequiredArgsConstructor;
@@ -61,10 +62,7 @@ class EarningsService {
 
 	Mono<Double> unitRevenue(String title, LocalDate royaltyDate) {
 
-		return ebookRoyaltyRepository.findByTitleAndRoyaltyDate(title, royaltyDate)
-			.map(EbookRoyaltyDataObject::getRoyalty)
-			.reduce(0.0, (total, value) -> total + value)
-			.switchIfEmpty(Mono.just(0.0));
+		return sumMoney(ebookRoyaltyRepository.findByTitleAndRoyaltyDate(title, royaltyDate), EbookRoyaltyDataObject::getRoyaltyMicros);
 	}
 
 	Mono<Double> pagesRead(String title, LocalDate date) {
@@ -151,8 +149,7 @@ class EarningsService {
 
 	Mono<TotalSales> totalRevenue(String title, LocalDate beginning, LocalDate end) {
 
-		return ebookRoyaltyRepository.findByTitleAndRoyaltyDateBetween(title, beginning, end)
-			.reduce(0.0, (total, ebookRoyaltyDataObject) -> total += ebookRoyaltyDataObject.getRoyalty())
+		return sumMoney(ebookRoyaltyRepository.findByTitleAndRoyaltyDateBetween(title, beginning, end), EbookRoyaltyDataObject::getRoyaltyMicros)
 			.map(aDouble -> new TotalSales(end, aDouble));
 	}
 
@@ -21,6 +21,8 @@ import lombok.Data;
 import java.time.LocalDate;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 /**
@@ -28,6 +30,12 @@ import org.springframework.data.mongodb.core.mapping.Document;
  */
 @Data
 @AllArgsConstructor
+@CompoundIndexes({
+	@CompoundIndex(name = "title_royaltyDate", def = "{'title': 1, 'royaltyDate': 1}", background = true),
+	@CompoundIndex(name = "titleKey_royaltyDate", def = "{'titleKey': 1, 'royaltyDate': 1}", background = true),
+	@CompoundIndex(name = "ASIN_royaltyDate", def = "{'ASIN': 1, 'royaltyDate': 1}", background = true),
+	@CompoundIndex(name = "royaltyDate_title_id", def = "{'royaltyDate': 1, 'title': 1, '_id': 1}", background = true)
+})
 @Document
 class EbookRoyaltyDataObject {
 
@@ -43,4 +51,12 @@ class EbookRoyaltyDataObject {
 	double netUnitsSold;
 	double royalty;
 	String currency;
+	String titleKey;
+
+	/**
+	 * Royalty in whole millionths, for adding up without drift.
+	 */
+	long getRoyaltyMicros() {
+		return CompactEncoding.toMicros(this.royalty);
+	}
 }
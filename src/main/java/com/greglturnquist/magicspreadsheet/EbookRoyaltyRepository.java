@@ -28,11 +28,11 @@ interface EbookRoyaltyRepository extends ReactiveMongoRepository<EbookRoyaltyDat
 
 	Flux<EbookRoyaltyDataObject> findByRoyaltyDateAfter(LocalDate date, Sort sort);
 
-	Flux<EbookRoyaltyDataObject> findByTitleLike(String title);
+	Flux<EbookRoyaltyDataObject> findByTitleKey(String titleKey);
 
-	Flux<EbookRoyaltyDataObject> findByTitleAndRoyaltyDate(String title, LocalDate royaltyDate);
+	Flux<EbookRoyaltyDataObject> findByTitleKeyOrASIN(String titleKey, String asin);
 
-	Flux<EbookRoyaltyDataObject> findByTitleLikeAndRoyaltyDateAfter(String title, LocalDate royaltyDate);
+	Flux<EbookRoyaltyDataObject> findByTitleAndRoyaltyDate(String title, LocalDate royaltyDate);
 
 	Flux<EbookRoyaltyDataObject> findByTitleAndRoyaltyDateBetween(String title, LocalDate earlier, LocalDate later);
 
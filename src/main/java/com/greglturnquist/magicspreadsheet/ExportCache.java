@@ -0,0 +1,231 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.magicspreadsheet;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Generated exports kept on disk, one file per {@link DatasetVersion}, so downloading the same data again doesn't
+ * build the workbook again.
+ *
+ * The least recently downloaded exports are deleted once the files add up to more than
+ * {@literal magic-spreadsheet.export.cache.max-megabytes}. Versions are never reused across restarts, so whatever an
+ * earlier run left behind is cleared out at startup. Only files named like this cache's own are touched, in case the
+ * directory is shared.
+ *
+ * An export being downloaded is leased, and isn't evicted until its lease is released, so a concurrent export of
+ * another version can't delete the file out from under the response.
+ *
+ * @author Greg Turnquist
+ */
+@Service
+@Slf4j
+class ExportCache {
+
+	private static final String PREFIX = "export-";
+
+	private final Path directory;
+	private final long maxBytes;
+
+	private final LinkedHashMap<Long, CachedExport> exports = new LinkedHashMap<>(16, 0.75f, true);
+	private long totalBytes = 0;
+
+	ExportCache(@Value("${magic-spreadsheet.export.cache.directory}") String directory,
+				@Value("${magic-spreadsheet.export.cache.max-megabytes}") long maxMegabytes) throws IOException {
+
+		this.directory = Files.createDirectories(Paths.get(directory));
+		this.maxBytes = maxMegabytes * 1024 * 1024;
+
+		try (Stream<Path> leftovers = Files.list(this.directory)) {
+			leftovers
+				.filter(path -> path.getFileName().toString().startsWith(PREFIX))
+				.forEach(ExportCache::delete);
+		}
+	}
+
+	/**
+	 * The export for this version, if it's cached and its file is still there. A file deleted behind the cache's back
+	 * is dropped from it, so it stops counting against the size limit.
+	 */
+	synchronized Optional<Path> get(long version) {
+		return find(version).map(export -> export.path);
+	}
+
+	/**
+	 * Like {@link #get(long)}, but the export is kept on disk until the {@link Lease} is released.
+	 */
+	synchronized Optional<Lease> lease(long version) {
+		return find(version).map(Lease::new);
+	}
+
+	private Optional<CachedExport> find(long version) {
+
+		CachedExport export = exports.get(version);
+
+		if (export == null) {
+			return Optional.empty();
+		}
+
+		if (!Files.exists(export.path)) {
+			exports.remove(version);
+			totalBytes -= export.size;
+			log.info("Cached export " + export.path + " has gone missing");
+			return Optional.empty();
+		}
+
+		return Optional.of(export);
+	}
+
+	/**
+	 * Write an export to a temp file, then move it into place under its version, so a half-written file is never
+	 * served.
+	 */
+	Path put(long version, DataBufferPipe.StreamWriter writer) throws IOException {
+
+		Lease lease = lease(version, writer);
+		lease.release();
+		return lease.getPath();
+	}
+
+	/**
+	 * Like {@link #put(long, DataBufferPipe.StreamWriter)}, but the new export is leased before anything else can
+	 * evict it.
+	 */
+	Lease lease(long version, DataBufferPipe.StreamWriter writer) throws IOException {
+
+		Path tempFile = Files.createTempFile(directory, PREFIX, ".tmp");
+
+		try {
+			try (OutputStream outputStream = Files.newOutputStream(tempFile)) {
+				writer.writeTo(outputStream);
+			}
+
+			Path export = Files.move(tempFile, directory.resolve(PREFIX + version + ".xlsm"),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+			return add(version, new CachedExport(export, Files.size(export)));
+		} catch (IOException|RuntimeException e) {
+			delete(tempFile);
+			throw e;
+		}
+	}
+
+	private synchronized Lease add(long version, CachedExport export) {
+
+		CachedExport replaced = exports.put(version, export);
+
+		totalBytes += export.size - (replaced == null ? 0 : replaced.size);
+
+		log.info("Cached export " + export.path + " (" + export.size + " bytes, " + totalBytes + " in total)");
+
+		Lease lease = new Lease(export);
+		evict();
+		return lease;
+	}
+
+	private synchronized void release(CachedExport export) {
+
+		export.leases--;
+		evict();
+	}
+
+	/**
+	 * Delete the least recently downloaded exports until the cache fits again, skipping any being served and always
+	 * keeping the latest.
+	 */
+	private void evict() {
+
+		Iterator<Map.Entry<Long, CachedExport>> leastRecentlyUsed = exports.entrySet().iterator();
+
+		while (totalBytes > maxBytes && leastRecentlyUsed.hasNext()) {
+
+			Map.Entry<Long, CachedExport> eldest = leastRecentlyUsed.next();
+
+			if (eldest.getValue().leases == 0 && leastRecentlyUsed.hasNext()) {
+				totalBytes -= eldest.getValue().size;
+				delete(eldest.getValue().path);
+				leastRecentlyUsed.remove();
+				log.info("Evicted cached export " + eldest.getValue().path);
+			}
+		}
+	}
+
+	private static void delete(Path path) {
+
+		try {
+			Files.deleteIfExists(path);
+		} catch (IOException e) {
+			log.warn("Unable to delete " + path + " => " + e.getMessage());
+		}
+	}
+
+	/**
+	 * An export kept on disk while it's being served.
+	 */
+	class Lease {
+
+		private final CachedExport export;
+		private boolean released = false;
+
+		private Lease(CachedExport export) {
+
+			this.export = export;
+			export.leases++;
+		}
+
+		Path getPath() {
+			return export.path;
+		}
+
+		void release() {
+
+			synchronized (ExportCache.this) {
+				if (!released) {
+					released = true;
+					ExportCache.this.release(export);
+				}
+			}
+		}
+	}
+
+	private static class CachedExport {
+
+		private final Path path;
+		private final long size;
+		private int leases = 0;
+
+		CachedExport(Path path, long size) {
+
+			this.path = path;
+			this.size = size;
+		}
+	}
+}
@@ -20,31 +20,35 @@ import static reactor.function.TupleUtils.*;
 
 import lombok.extern.slf4j.Slf4j;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.sql.Date;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
-import java.util.Comparator;
-import java.util.stream.IntStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
-import reactor.util.function.Tuple2;
-import reactor.util.function.Tuples;
-import org.springframework.core.io.AbstractResource;
-import org.springframework.core.io.ClassPathResource;
+import reactor.core.scheduler.Scheduler;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ServerWebExchange;
 
 /**
  * @author Greg Turnquist
@@ -58,305 +62,307 @@ class ExportController {
 	private final AmsDataRepository amsDataRepository;
 	private final EbookRoyaltyRepository royaltyRepository;
 	private final KenpReadRepository kenpReadRepository;
+	private final ExportExecutor exportExecutor;
+	private final ExportCache exportCache;
+	private final ExportTemplate exportTemplate;
+	private final DatasetVersion datasetVersion;
+	private final boolean streamingByDefault;
+	private final int rowWindow;
 
 	public static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
 
+	static final MediaType XLSM = MediaType.parseMediaType("application/vnd.ms-excel.sheet.macroEnabled.12");
+
 	ExportController(BookRepository bookRepository,
 					 AdTableRepository adTableRepository,
 					 AmsDataRepository amsDataRepository,
 					 EbookRoyaltyRepository royaltyRepository,
-					 KenpReadRepository kenpReadRepository) {
+					 KenpReadRepository kenpReadRepository,
+					 ExportExecutor exportExecutor,
+					 ExportCache exportCache,
+					 ExportTemplate exportTemplate,
+					 DatasetVersion datasetVersion,
+					 @Value("${magic-spreadsheet.export.streaming}") boolean streamingByDefault,
+					 @Value("${magic-spreadsheet.export.row-window}") int rowWindow) {
 
 		this.bookRepository = bookRepository;
 		this.adTableRepository = adTableRepository;
 		this.amsDataRepository = amsDataRepository;
 		this.royaltyRepository = royaltyRepository;
 		this.kenpReadRepository = kenpReadRepository;
+		this.exportExecutor = exportExecutor;
+		this.exportCache = exportCache;
+		this.exportTemplate = exportTemplate;
+		this.datasetVersion = datasetVersion;
+		this.streamingByDefault = streamingByDefault;
+		this.rowWindow = rowWindow;
 	}
 
+	/**
+	 * Serve the export for the current {@link DatasetVersion} from the {@link ExportCache}, building it first if the
+	 * data has changed since the last download. Served as a file, it goes out with zero-copy transfer when the server
+	 * supports it, and {@literal Range} requests let an interrupted download pick up where it left off. The export is
+	 * leased from the cache until {@link ExportLeaseFilter} sees the response finish.
+	 *
+	 * @param streaming whether to write the data sheets through a sliding window of rows instead of building the
+	 * whole workbook in memory, defaulting to {@literal magic-spreadsheet.export.streaming}
+	 * @see ExportExecutor
+	 */
 	@GetMapping(value = "/exportMagicSpreadsheet")
-	ResponseEntity<Mono<AbstractResource>> exportMagicSpreadsheet() {
+	Mono<ResponseEntity<Resource>> exportMagicSpreadsheet(@RequestParam(name = "streaming", required = false) Optional<Boolean> streaming,
+														  ServerWebExchange exchange) {
 
 		String filename = "magic-spreadsheet-export-" + LocalDate.now() + "" + ".xlsm";
-
-		return ResponseEntity.ok()
-			.header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-			.body(populateTemplate(new ClassPathResource("sample-magic-spreadsheet.xlsm")));
+		long version = datasetVersion.current();
+
+		return Mono.justOrEmpty(exportCache.lease(version))
+			.doOnNext(lease -> log.info("Serving cached export " + lease.getPath()))
+			.switchIfEmpty(Mono.defer(() -> export(version, streaming.orElse(streamingByDefault))))
+			.doOnNext(lease -> exchange.getAttributes().put(ExportLeaseFilter.LEASE, lease))
+			.map(ExportCache.Lease::getPath)
+			.map(export -> ResponseEntity.ok()
+				.header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
+				.contentType(XLSM)
+				.body(new FileSystemResource(export.toFile())));
 	}
 
-	private Mono<AbstractResource> populateTemplate(AbstractResource resource) {
-
-		return Mono.just(resource)
-			.flatMap(this::workbook)
-			.flatMap(this::insertBooks)
-			.flatMap(this::insertAds)
-			.flatMap(this::insertAmsData)
-			.flatMap(this::insertRoyaltyData)
-			.flatMap(this::insertKenpReadData)
-			.flatMap(this::writeToDisk)
-			.subscribeOn(Schedulers.newSingle("exporter"));
+	private Mono<ExportCache.Lease> export(long version, boolean streaming) {
+
+		return exportExecutor.execute(exporter -> Mono.using(
+					() -> newWorkbook(streaming),
+					workbook -> populateTemplate(workbook, exporter).map(populated -> writeToCache(version, populated)),
+					workbook -> exporter.schedule(workbook::dispose))
+				.flux())
+			.single();
 	}
 
-	private Mono<XSSFWorkbook> insertBooks(XSSFWorkbook workbook) {
+	/**
+	 * A fresh copy of the template. Its streamed rows' temp files are cleaned up once the export is written, fails or
+	 * is cancelled, on the exporter thread so that never happens in the middle of a write.
+	 */
+	private ExportWorkbook newWorkbook(boolean streaming) {
 
-		return worksheet(workbook, MagicSheets.BOOKS_SETUP.getSheetName())
-			.flatMapMany(worksheet -> bookRepository.findAll()
-				.sort(Comparator
-					.comparing(Book::getSeries)
-					.thenComparing(Book::getTitle))
-				.flatMap(book -> Mono.just(worksheet).zipWith(Mono.just(book))))
-			.index((index, objects) -> {
+		XSSFWorkbook template = exportTemplate.workbook();
 
-				XSSFSheet worksheet = objects.getT1();
-				Book book = objects.getT2();
+		return streaming ? ExportWorkbook.streaming(template, rowWindow) : ExportWorkbook.inMemory(template);
+	}
 
-				Row row = worksheet.getRow(Math.toIntExact(index + 2));
-				int rownum = row.getRowNum() + 1;
+	/**
+	 * Read all five collections at once, each sorted by MongoDB, and funnel their rows onto a single thread that does
+	 * all the writing, since POI workbooks aren't thread-safe. Rows within a sheet keep their query's order.
+	 */
+	private Mono<ExportWorkbook> populateTemplate(ExportWorkbook workbook, Scheduler exporter) {
 
-				row.getCell(MagicSpreadsheetBookSetupColumn.BookTitle.index(), CREATE_NULL_AS_BLANK).setCellValue(book.getCompleteTitle());
-				row.getCell(MagicSpreadsheetBookSetupColumn.AuthorName.index(), CREATE_NULL_AS_BLANK).setCellValue(book.getAuthor());
-				row.getCell(MagicSpreadsheetBookSetupColumn.BookShort.index(), CREATE_NULL_AS_BLANK).setCellValue(book.getBookShort());
+		Mono<List<Book>> books = bookRepository.findAll(Sort.by("series", "title"))
+			.collectList()
+			.cache();
 
-				if (book.getSubTitle().isEmpty()) {
-					row.getCell(MagicSpreadsheetBookSetupColumn.SeriesTitle.index(), CREATE_NULL_AS_BLANK).setCellValue((String) null);
-				} else {
-					row.getCell(MagicSpreadsheetBookSetupColumn.SeriesTitle.index(), CREATE_NULL_AS_BLANK).setCellValue(book.getSeries());
-				}
+		Mono<List<AdTableObject>> ads = adTableRepository.findAll(Sort.by("start", "campaignName"))
+			.filter(adTableObject -> adTableObject.getBookTitle() != null)
+			.collectList()
+			.cache();
+
+		return Flux.merge(
+				insertBooks(workbook, books),
+				insertAds(workbook, books, ads),
+				insertAmsData(workbook, books, ads),
+				insertRoyaltyData(workbook),
+				insertKenpReadData(workbook))
+			.publishOn(exporter)
+			.doOnNext(Runnable::run)
+			.then(Mono.just(workbook));
+	}
 
-				row.getCell(MagicSpreadsheetBookSetupColumn.AmazonASIN.index(), CREATE_NULL_AS_BLANK).setCellValue(book.getASIN());
-				row.getCell(MagicSpreadsheetBookSetupColumn.KENPC.index(), CREATE_NULL_AS_BLANK).setCellValue(book.getKENPC());
+	private Flux<Runnable> insertBooks(ExportWorkbook workbook, Mono<List<Book>> books) {
 
-				return Tuples.of(book, worksheet);
-			})
-			.map(objects -> Tuples.of(objects.getT1().getSeries(), objects.getT2()))
-			.filter(objects -> StringUtils.hasText(objects.getT1()))
-			.sort(Comparator.comparing(Tuple2::getT1))
-			.distinct()
-			.index((index, objects) -> {
+		Sheet worksheet = worksheet(workbook, MagicSheets.BOOKS_SETUP.getSheetName());
 
-				String series = objects.getT1();
-				XSSFSheet worksheet = objects.getT2();
+		return books.flatMapMany(allBooks -> Flux.concat(
+			Flux.fromIterable(allBooks)
+				.index((index, book) -> (Runnable) () -> writeBook(workbook, worksheet, index, book)),
+			Flux.fromIterable(allBooks)
+				.map(Book::getSeries)
+				.filter(StringUtils::hasText)
+				.distinct()
+				.sort()
+				.index((index, series) -> (Runnable) () -> writeSeries(workbook, worksheet, index, series))));
+	}
 
-				Row row = worksheet.getRow(Math.toIntExact(index + 2));
+	private static void writeBook(ExportWorkbook workbook, Sheet worksheet, long index, Book book) {
 
-				row.getCell(MagicSpreadsheetBookSetupColumn.SeriesName.index(), CREATE_NULL_AS_BLANK).setCellValue(series);
+		Row row = workbook.row(worksheet, Math.toIntExact(index + 2));
 
-				return Mono.just(workbook);
-			})
-			.then(Mono.just(workbook));
-	}
+		row.getCell(MagicSpreadsheetBookSetupColumn.BookTitle.index(), CREATE_NULL_AS_BLANK).setCellValue(book.getCompleteTitle());
+		row.getCell(MagicSpreadsheetBookSetupColumn.AuthorName.index(), CREATE_NULL_AS_BLANK).setCellValue(book.getAuthor());
+		row.getCell(MagicSpreadsheetBookSetupColumn.BookShort.index(), CREATE_NULL_AS_BLANK).setCellValue(book.getBookShort());
 
-	private Mono<XSSFWorkbook> insertAds(XSSFWorkbook workbook) {
-
-		return worksheet(workbook, MagicSheets.AD_TABLE.getSheetName())
-			.flatMapMany(worksheet -> adTableRepository.findAll()
-					.filter(adTableObject -> adTableObject.getBookTitle() != null)
-					.sort(Comparator
-						.comparing(AdTableObject::getStart)
-						.thenComparing(AdTableObject::getCampaignName))
-					.flatMap(adTableObject -> Mono.zip(
-						Mono.just(worksheet),
-						Mono.just(adTableObject),
-						bookRepository.findByTitle(adTableObject.getBookTitle()))))
-			.index((index, objects) -> {
-
-				XSSFSheet worksheet = objects.getT1();
-				AdTableObject ad = objects.getT2();
-				Book book = objects.getT3();
-
-				Row row = worksheet.getRow(Math.toIntExact(index + 1));
-				int rownum = row.getRowNum() + 1;
-
-				row.getCell(MagicSpreadsheetAdDataColumn.CampaignName.index(), CREATE_NULL_AS_BLANK).setCellValue(ad.getCampaignName());
-				row.getCell(MagicSpreadsheetAdDataColumn.Type.index(), CREATE_NULL_AS_BLANK).setCellValue(ad.getType());
-				row.getCell(MagicSpreadsheetAdDataColumn.Start.index(), CREATE_NULL_AS_BLANK).setCellValue(Date.valueOf(ad.getStart()));
-
-				ad.getEnd().ifPresent(localDate -> {
-					row.getCell(MagicSpreadsheetAdDataColumn.End.index(), CREATE_NULL_AS_BLANK).setCellValue(Date.valueOf(localDate));
-				});
-
-				row.getCell(MagicSpreadsheetAdDataColumn.Budget.index(), CREATE_NULL_AS_BLANK).setCellValue(ad.getBudget());
-				row.getCell(MagicSpreadsheetAdDataColumn.BookTitle.index(), CREATE_NULL_AS_BLANK).setCellValue(book.getCompleteTitle());
-				row.getCell(MagicSpreadsheetAdDataColumn.Series.index(), CREATE_NULL_AS_BLANK).setCellValue(ad.getSeries());
-
-				return Mono.just(workbook);
-			})
-			.then(Mono.just(workbook));
+		if (book.getSubTitle().isEmpty()) {
+			row.getCell(MagicSpreadsheetBookSetupColumn.SeriesTitle.index(), CREATE_NULL_AS_BLANK).setCellValue((String) null);
+		} else {
+			row.getCell(MagicSpreadsheetBookSetupColumn.SeriesTitle.index(), CREATE_NULL_AS_BLANK).setCellValue(book.getSeries());
+		}
+
+		row.getCell(MagicSpreadsheetBookSetupColumn.AmazonASIN.index(), CREATE_NULL_AS_BLANK).setCellValue(book.getASIN());
+		row.getCell(MagicSpreadsheetBookSetupColumn.KENPC.index(), CREATE_NULL_AS_BLANK).setCellValue(book.getKENPC());
 	}
 
-	private Mono<Boolean> exists(AmsDataObject amsDataObject) {
+	private static void writeSeries(ExportWorkbook workbook, Sheet worksheet, long index, String series) {
 
-		return adTableRepository.findByCampaignName(amsDataObject.getCampaignName())
-			.filter(adTableObject -> adTableObject.getBookTitle() != null)
-			.flatMap(adTableObject -> bookRepository.findByTitle(adTableObject.getBookTitle()))
-			.flatMap(book -> Mono.just(true))
-			.switchIfEmpty(Mono.just(false));
-	}
+		Row row = workbook.row(worksheet, Math.toIntExact(index + 2));
 
-	private Mono<XSSFWorkbook> insertAmsData(XSSFWorkbook workbook) {
-
-		return worksheet(workbook, MagicSheets.AMS_DATA.getSheetName())
-			.flatMapMany(worksheet -> amsDataRepository.findAll()
-				.filterWhen(this::exists)
-				.sort(Comparator
-					.comparing(AmsDataObject::getDate)
-					.thenComparing(AmsDataObject::getStartDate)
-					.thenComparing(AmsDataObject::getCampaignName))
-				.flatMap(amsDataObject -> Mono.just(worksheet).zipWith(Mono.just(amsDataObject))))
-			.index((index, objects) -> {
-
-				XSSFSheet worksheet = objects.getT1();
-				AmsDataObject amsDataObject = objects.getT2();
-
-				Row row = worksheet.getRow(Math.toIntExact(index) + 1);
-				int rownum = row.getRowNum() + 1;
-
-				row.getCell(0, CREATE_NULL_AS_BLANK).setCellFormula("B" + rownum + "&T" + rownum);
-				row.getCell(1, CREATE_NULL_AS_BLANK).setCellFormula("VLOOKUP(H" + rownum + ",AdLookupTable,6,FALSE)");
-				row.getCell(2, CREATE_NULL_AS_BLANK).setCellFormula("VLOOKUP(B" + rownum + ",SeriesConvTable,4,FALSE)&E" + rownum);
-				row.getCell(3, CREATE_NULL_AS_BLANK).setCellFormula("H" + rownum + "&T" + rownum);
-				row.getCell(4, CREATE_NULL_AS_BLANK).setCellFormula("T" + rownum);
-				row.getCell(5, CREATE_NULL_AS_BLANK).setCellFormula("IF(N" + rownum + ">1000,1,0)");
-
-				row.getCell(MagicSpreadsheetAmsDataColumn.Status.index(), CREATE_NULL_AS_BLANK).setCellValue(amsDataObject.getStatus());
-				row.getCell(MagicSpreadsheetAmsDataColumn.CampaignName.index(), CREATE_NULL_AS_BLANK).setCellValue(amsDataObject.getCampaignName());
-				row.getCell(MagicSpreadsheetAmsDataColumn.Type.index(), CREATE_NULL_AS_BLANK).setCellValue(amsDataObject.getType());
-				row.getCell(MagicSpreadsheetAmsDataColumn.StartDate.index(), CREATE_NULL_AS_BLANK).setCellValue(Date.valueOf(amsDataObject.getStartDate()));
-
-				amsDataObject.getEndDate().ifPresent(localDate -> {
-					row.getCell(MagicSpreadsheetAmsDataColumn.EndDate.index(), CREATE_NULL_AS_BLANK).setCellValue(Date.valueOf(localDate));
-				});
-
-				row.getCell(MagicSpreadsheetAmsDataColumn.Budget.index(), CREATE_NULL_AS_BLANK).setCellValue(amsDataObject.getBudget());
-				row.getCell(MagicSpreadsheetAmsDataColumn.Spend.index(), CREATE_NULL_AS_BLANK).setCellValue(amsDataObject.getTotalSpend());
-				row.getCell(MagicSpreadsheetAmsDataColumn.Impressions.index(), CREATE_NULL_AS_BLANK).setCellValue(amsDataObject.getImpressions().orElse(0.0));
-				row.getCell(MagicSpreadsheetAmsDataColumn.Clicks.index(), CREATE_NULL_AS_BLANK).setCellValue(amsDataObject.getClicks().orElse(0.0));
-				row.getCell(MagicSpreadsheetAmsDataColumn.AverageCpc.index(), CREATE_NULL_AS_BLANK).setCellValue(amsDataObject.getAverageCpc().orElse(0.0));
-				row.getCell(MagicSpreadsheetAmsDataColumn.Date.index(), CREATE_NULL_AS_BLANK).setCellValue(Date.valueOf(amsDataObject.getDate()));
-
-				return Mono.just(workbook);
-			})
-			.then(Mono.just(workbook));
+		row.getCell(MagicSpreadsheetBookSetupColumn.SeriesName.index(), CREATE_NULL_AS_BLANK).setCellValue(series);
 	}
 
-	private Mono<XSSFWorkbook> insertRoyaltyData(XSSFWorkbook workbook) {
+	/**
+	 * Only ads linked to a book that still exists are exported, with the book's complete title looked up from the
+	 * books already fetched.
+	 */
+	private Flux<Runnable> insertAds(ExportWorkbook workbook, Mono<List<Book>> books, Mono<List<AdTableObject>> ads) {
 
-		return Mono.zip(
-			worksheet(workbook, MagicSheets.EBOOK_ROYALTY_DATA.getSheetName()),
-			royaltyRepository.findAll()
-				.sort(Comparator
-					.comparing(EbookRoyaltyDataObject::getRoyaltyDate)
-					.thenComparing(EbookRoyaltyDataObject::getTitle))
-				.collectList())
-			.flatMap(function((worksheet, royaltyDataObjects) -> {
+		Sheet worksheet = worksheet(workbook, MagicSheets.AD_TABLE.getSheetName());
 
-				log.info("Ready to copy in the KDP Royalty table...");
+		return Mono.zip(books, ads)
+			.flatMapMany(function((allBooks, allAds) -> {
 
-				IntStream.range(0, royaltyDataObjects.size()).forEach(i -> {
+				Map<String, Book> booksByTitle = new HashMap<>();
+				allBooks.forEach(book -> booksByTitle.putIfAbsent(book.getTitle(), book));
+
+				return Flux.fromIterable(allAds)
+					.filter(ad -> booksByTitle.containsKey(ad.getBookTitle()))
+					.index((index, ad) -> (Runnable) () -> writeAd(workbook, worksheet, index, ad, booksByTitle.get(ad.getBookTitle())));
+			}));
+	}
 
-					Row row = worksheet.getRow(i + 1);
+	private static void writeAd(ExportWorkbook workbook, Sheet worksheet, long index, AdTableObject ad, Book book) {
 
-					EbookRoyaltyDataObject royaltyDataObject = royaltyDataObjects.get(i);
+		Row row = workbook.row(worksheet, Math.toIntExact(index + 1));
 
-					row.getCell(MagicSpreadsheetEbookRoyaltyDataColumn.RoyaltyDate.index(), CREATE_NULL_AS_BLANK).setCellValue(royaltyDataObject.getRoyaltyDate().format(FORMATTER));
-					row.getCell(MagicSpreadsheetEbookRoyaltyDataColumn.Title.index(), CREATE_NULL_AS_BLANK).setCellValue(royaltyDataObject.getTitle());
-					row.getCell(MagicSpreadsheetEbookRoyaltyDataColumn.AuthorName.index(), CREATE_NULL_AS_BLANK).setCellValue(royaltyDataObject.getAuthorName());
-					row.getCell(MagicSpreadsheetEbookRoyaltyDataColumn.ASIN.index(), CREATE_NULL_AS_BLANK).setCellValue(royaltyDataObject.getASIN());
-					row.getCell(MagicSpreadsheetEbookRoyaltyDataColumn.Marketplace.index(), CREATE_NULL_AS_BLANK).setCellValue(royaltyDataObject.getMarketplace());
-					row.getCell(MagicSpreadsheetEbookRoyaltyDataColumn.RoyaltyType.index(), CREATE_NULL_AS_BLANK).setCellValue(royaltyDataObject.getRoyaltyType());
-					row.getCell(MagicSpreadsheetEbookRoyaltyDataColumn.TransationType.index(), CREATE_NULL_AS_BLANK).setCellValue(royaltyDataObject.getTransactionType());
-					row.getCell(MagicSpreadsheetEbookRoyaltyDataColumn.NetUnitsSold.index(), CREATE_NULL_AS_BLANK).setCellValue(royaltyDataObject.getNetUnitsSold());
-					row.getCell(MagicSpreadsheetEbookRoyaltyDataColumn.Royalty.index(), CREATE_NULL_AS_BLANK).setCellValue(royaltyDataObject.getRoyalty());
-					row.getCell(MagicSpreadsheetEbookRoyaltyDataColumn.Currency.index(), CREATE_NULL_AS_BLANK).setCellValue(royaltyDataObject.getCurrency());
+		row.getCell(MagicSpreadsheetAdDataColumn.CampaignName.index(), CREATE_NULL_AS_BLANK).setCellValue(ad.getCampaignName());
+		row.getCell(MagicSpreadsheetAdDataColumn.Type.index(), CREATE_NULL_AS_BLANK).setCellValue(ad.getType());
+		row.getCell(MagicSpreadsheetAdDataColumn.Start.index(), CREATE_NULL_AS_BLANK).setCellValue(Date.valueOf(ad.getStart()));
 
-				});
+		ad.getEnd().ifPresent(localDate -> {
+			row.getCell(MagicSpreadsheetAdDataColumn.End.index(), CREATE_NULL_AS_BLANK).setCellValue(Date.valueOf(localDate));
+		});
 
-				return Mono.just(workbook);
-			}));
+		row.getCell(MagicSpreadsheetAdDataColumn.Budget.index(), CREATE_NULL_AS_BLANK).setCellValue(ad.getBudget());
+		row.getCell(MagicSpreadsheetAdDataColumn.BookTitle.index(), CREATE_NULL_AS_BLANK).setCellValue(book.getCompleteTitle());
+		row.getCell(MagicSpreadsheetAdDataColumn.Series.index(), CREATE_NULL_AS_BLANK).setCellValue(ad.getSeries());
 	}
 
+	/**
+	 * Campaigns whose ad is linked to a book that still exists, so AMS rows can be picked out in a single query.
+	 */
+	private static Set<String> linkedCampaigns(List<Book> books, List<AdTableObject> ads) {
 
-	private Mono<XSSFWorkbook> insertKenpReadData(XSSFWorkbook workbook) {
+		Set<String> titles = books.stream()
+			.map(Book::getTitle)
+			.collect(Collectors.toSet());
 
-		return Mono.zip(
-			worksheet(workbook, MagicSheets.KENP_READ_DATA.getSheetName()),
-			kenpReadRepository.findAll()
-				.sort(Comparator
-					.comparing(KenpReadDataObject::getOrderDate)
-					.thenComparing(KenpReadDataObject::getTitle))
-				.collectList())
-			.flatMap(function((worksheet, readDataObjects) -> {
+		return ads.stream()
+			.filter(adTableObject -> titles.contains(adTableObject.getBookTitle()))
+			.map(AdTableObject::getCampaignName)
+			.collect(Collectors.toSet());
+	}
 
-				log.info("Ready to copy in the KENP Read table...");
+	private Flux<Runnable> insertAmsData(ExportWorkbook workbook, Mono<List<Book>> books, Mono<List<AdTableObject>> ads) {
 
-				IntStream.range(0, readDataObjects.size()).forEach(i -> {
+		Sheet worksheet = worksheet(workbook, MagicSheets.AMS_DATA.getSheetName());
 
-					Row row = worksheet.getRow(i + 1);
+		return Mono.zip(books, ads)
+			.map(function(ExportController::linkedCampaigns))
+			.flatMapMany(campaigns -> amsDataRepository.findByCampaignNameIn(campaigns, Sort.by("date", "startDate", "campaignName")))
+			.index((index, amsDataObject) -> (Runnable) () -> writeAmsData(workbook, worksheet, index, amsDataObject));
+	}
 
-					KenpReadDataObject kenpReadDataObject = readDataObjects.get(i);
+	private static void writeAmsData(ExportWorkbook workbook, Sheet worksheet, long index, AmsDataObject amsDataObject) {
+
+		Row row = workbook.row(worksheet, Math.toIntExact(index + 1));
+		int rownum = row.getRowNum() + 1;
+
+		row.getCell(0, CREATE_NULL_AS_BLANK).setCellFormula("B" + rownum + "&T" + rownum);
+		row.getCell(1, CREATE_NULL_AS_BLANK).setCellFormula("VLOOKUP(H" + rownum + ",AdLookupTable,6,FALSE)");
+		row.getCell(2, CREATE_NULL_AS_BLANK).setCellFormula("VLOOKUP(B" + rownum + ",SeriesConvTable,4,FALSE)&E" + rownum);
+		row.getCell(3, CREATE_NULL_AS_BLANK).setCellFormula("H" + rownum + "&T" + rownum);
+		row.getCell(4, CREATE_NULL_AS_BLANK).setCellFormula("T" + rownum);
+		row.getCell(5, CREATE_NULL_AS_BLANK).setCellFormula("IF(N" + rownum + ">1000,1,0)");
+
+		row.getCell(MagicSpreadsheetAmsDataColumn.Status.index(), CREATE_NULL_AS_BLANK).setCellValue(amsDataObject.getStatus());
+		row.getCell(MagicSpreadsheetAmsDataColumn.CampaignName.index(), CREATE_NULL_AS_BLANK).setCellValue(amsDataObject.getCampaignName());
+		row.getCell(MagicSpreadsheetAmsDataColumn.Type.index(), CREATE_NULL_AS_BLANK).setCellValue(amsDataObject.getType());
+		row.getCell(MagicSpreadsheetAmsDataColumn.StartDate.index(), CREATE_NULL_AS_BLANK).setCellValue(Date.valueOf(amsDataObject.getStartDate()));
+
+		amsDataObject.getEndDate().ifPresent(localDate -> {
+			row.getCell(MagicSpreadsheetAmsDataColumn.EndDate.index(), CREATE_NULL_AS_BLANK).setCellValue(Date.valueOf(localDate));
+		});
+
+		row.getCell(MagicSpreadsheetAmsDataColumn.Budget.index(), CREATE_NULL_AS_BLANK).setCellValue(amsDataObject.getBudget());
+		row.getCell(MagicSpreadsheetAmsDataColumn.Spend.index(), CREATE_NULL_AS_BLANK).setCellValue(amsDataObject.getTotalSpend());
+		row.getCell(MagicSpreadsheetAmsDataColumn.Impressions.index(), CREATE_NULL_AS_BLANK).setCellValue(amsDataObject.getImpressionsOrZero());
+		row.getCell(MagicSpreadsheetAmsDataColumn.Clicks.index(), CREATE_NULL_AS_BLANK).setCellValue(amsDataObject.getClicksOrZero());
+		row.getCell(MagicSpreadsheetAmsDataColumn.AverageCpc.index(), CREATE_NULL_AS_BLANK).setCellValue(amsDataObject.getAverageCpcOrZero());
+		row.getCell(MagicSpreadsheetAmsDataColumn.Date.index(), CREATE_NULL_AS_BLANK).setCellValue(Date.valueOf(amsDataObject.getDate()));
+	}
 
-					row.getCell(MagicSpreadsheetKenpReadDataColumn.OrderDate.index(), CREATE_NULL_AS_BLANK).setCellValue(kenpReadDataObject.getOrderDate().format(FORMATTER));
-					row.getCell(MagicSpreadsheetKenpReadDataColumn.Title.index(), CREATE_NULL_AS_BLANK).setCellValue(kenpReadDataObject.getTitle());
-					row.getCell(MagicSpreadsheetKenpReadDataColumn.AuthorName.index(), CREATE_NULL_AS_BLANK).setCellValue(kenpReadDataObject.getAuthor());
-					row.getCell(MagicSpreadsheetKenpReadDataColumn.ASIN.index(), CREATE_NULL_AS_BLANK).setCellValue(kenpReadDataObject.getASIN());
-					row.getCell(MagicSpreadsheetKenpReadDataColumn.Marketplace.index(), CREATE_NULL_AS_BLANK).setCellValue(kenpReadDataObject.getMarketPlace());
-					row.getCell(MagicSpreadsheetKenpReadDataColumn.PagesRead.index(), CREATE_NULL_AS_BLANK).setCellValue(kenpReadDataObject.getPagesRead());
-				});
+	private Flux<Runnable> insertRoyaltyData(ExportWorkbook workbook) {
 
-				return Mono.just(workbook);
-			}));
-	}
+		Sheet worksheet = worksheet(workbook, MagicSheets.EBOOK_ROYALTY_DATA.getSheetName());
 
+		return royaltyRepository.findAll(Sort.by("royaltyDate", "title"))
+			.index((index, royaltyDataObject) -> (Runnable) () -> writeRoyaltyData(workbook, worksheet, index, royaltyDataObject));
+	}
 
-	private Mono<AbstractResource> writeToDisk(XSSFWorkbook workbook) {
+	private static void writeRoyaltyData(ExportWorkbook workbook, Sheet worksheet, long index, EbookRoyaltyDataObject royaltyDataObject) {
 
-		try {
-			Path tempOutputFile = Files.createTempFile("magic-spreadsheet-", ".xlsm");
+		Row row = workbook.row(worksheet, Math.toIntExact(index + 1));
 
-			Files.deleteIfExists(tempOutputFile);
+		row.getCell(MagicSpreadsheetEbookRoyaltyDataColumn.RoyaltyDate.index(), CREATE_NULL_AS_BLANK).setCellValue(royaltyDataObject.getRoyaltyDate().format(FORMATTER));
+		row.getCell(MagicSpreadsheetEbookRoyaltyDataColumn.Title.index(), CREATE_NULL_AS_BLANK).setCellValue(royaltyDataObject.getTitle());
+		row.getCell(MagicSpreadsheetEbookRoyaltyDataColumn.AuthorName.index(), CREATE_NULL_AS_BLANK).setCellValue(royaltyDataObject.getAuthorName());
+		row.getCell(MagicSpreadsheetEbookRoyaltyDataColumn.ASIN.index(), CREATE_NULL_AS_BLANK).setCellValue(royaltyDataObject.getASIN());
+		row.getCell(MagicSpreadsheetEbookRoyaltyDataColumn.Marketplace.index(), CREATE_NULL_AS_BLANK).setCellValue(royaltyDataObject.getMarketplace());
+		row.getCell(MagicSpreadsheetEbookRoyaltyDataColumn.RoyaltyType.index(), CREATE_NULL_AS_BLANK).setCellValue(royaltyDataObject.getRoyaltyType());
+		row.getCell(MagicSpreadsheetEbookRoyaltyDataColumn.TransationType.index(), CREATE_NULL_AS_BLANK).setCellValue(royaltyDataObject.getTransactionType());
+		row.getCell(MagicSpreadsheetEbookRoyaltyDataColumn.NetUnitsSold.index(), CREATE_NULL_AS_BLANK).setCellValue(royaltyDataObject.getNetUnitsSold());
+		row.getCell(MagicSpreadsheetEbookRoyaltyDataColumn.Royalty.index(), CREATE_NULL_AS_BLANK).setCellValue(royaltyDataObject.getRoyalty());
+		row.getCell(MagicSpreadsheetEbookRoyaltyDataColumn.Currency.index(), CREATE_NULL_AS_BLANK).setCellValue(royaltyDataObject.getCurrency());
+	}
 
-			try (FileOutputStream fout = new FileOutputStream(tempOutputFile.toFile())) {
-				log.info("Writing " + tempOutputFile.getFileName() + " to disk...");
-				workbook.write(fout);
-				log.info("Completed writing " + tempOutputFile.getFileName() + " to disk...");
-			} catch (IOException e) {
-				throw new RuntimeException(e);
-			}
+	private Flux<Runnable> insertKenpReadData(ExportWorkbook workbook) {
 
-			return Mono.just(new FileSystemResource(tempOutputFile.toFile()));
+		Sheet worksheet = worksheet(workbook, MagicSheets.KENP_READ_DATA.getSheetName());
 
-		} catch (IOException e) {
-			return Mono.empty();
-		}
+		return kenpReadRepository.findAll(Sort.by("orderDate", "title"))
+			.index((index, kenpReadDataObject) -> (Runnable) () -> writeKenpReadData(workbook, worksheet, index, kenpReadDataObject));
 	}
-	
-	private Mono<FileSystemResource> copyToTempFile(AbstractResource resource) {
 
-		try {
-			Path tempFilePath = Files.createTempFile("magic-spreadsheet-", ".xlsm");
-			
-			Files.deleteIfExists(tempFilePath);
-			Files.copy(resource.getInputStream(), tempFilePath);
+	private static void writeKenpReadData(ExportWorkbook workbook, Sheet worksheet, long index, KenpReadDataObject kenpReadDataObject) {
 
-			return Mono.just(new FileSystemResource(tempFilePath.toString()));
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		}
+		Row row = workbook.row(worksheet, Math.toIntExact(index + 1));
+
+		row.getCell(MagicSpreadsheetKenpReadDataColumn.OrderDate.index(), CREATE_NULL_AS_BLANK).setCellValue(kenpReadDataObject.getOrderDate().format(FORMATTER));
+		row.getCell(MagicSpreadsheetKenpReadDataColumn.Title.index(), CREATE_NULL_AS_BLANK).setCellValue(kenpReadDataObject.getTitle());
+		row.getCell(MagicSpreadsheetKenpReadDataColumn.AuthorName.index(), CREATE_NULL_AS_BLANK).setCellValue(kenpReadDataObject.getAuthor());
+		row.getCell(MagicSpreadsheetKenpReadDataColumn.ASIN.index(), CREATE_NULL_AS_BLANK).setCellValue(kenpReadDataObject.getASIN());
+		row.getCell(MagicSpreadsheetKenpReadDataColumn.Marketplace.index(), CREATE_NULL_AS_BLANK).setCellValue(kenpReadDataObject.getMarketPlace());
+		row.getCell(MagicSpreadsheetKenpReadDataColumn.PagesRead.index(), CREATE_NULL_AS_BLANK).setCellValue(kenpReadDataObject.getPagesRead());
 	}
 
-	private Mono<XSSFWorkbook> workbook(AbstractResource resource) {
+	private ExportCache.Lease writeToCache(long version, ExportWorkbook workbook) {
 
 		try {
-			log.info("Opening workbook " + resource.getFile().getCanonicalPath());
-			return Mono.just(new XSSFWorkbook(resource.getInputStream()));
+			log.info("Writing export to the cache...");
+			ExportCache.Lease export = exportCache.lease(version, workbook::write);
+			log.info("Completed writing export to the cache...");
+			return export;
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
-	private Mono<XSSFSheet> worksheet(XSSFWorkbook workbook, String sheetName) {
-		
+	private Sheet worksheet(ExportWorkbook workbook, String sheetName) {
+
 		log.info("Opening worksheet " + sheetName);
-		return Mono.just(workbook.getSheet(sheetName));
+		return workbook.sheet(sheetName);
 	}
 }
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.magicspreadsheet;
+
+import static java.util.concurrent.TimeUnit.*;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import javax.annotation.PreDestroy;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Run exports on a fixed set of single-threaded exporters shared by every request, so concurrent downloads can't pile
+ * up threads or workbooks.
+ *
+ * Each export gets one exporter to itself from start to finish. When they're all busy, up to
+ * {@literal magic-spreadsheet.export.queue-depth} exports wait their turn, and any beyond that are turned away with
+ * {@literal 429 Too Many Requests}.
+ *
+ * @author Greg Turnquist
+ */
+@Component
+@Slf4j
+class ExportExecutor {
+
+	private final List<Scheduler> exporters;
+	private final Queue<Scheduler> idle = new ArrayDeque<>();
+	private final Queue<Waiter> waiting = new ArrayDeque<>();
+	private final int queueDepth;
+
+	private final Timer queueWait;
+	private final Timer duration;
+	private final Counter rejected;
+
+	ExportExecutor(@Value("${magic-spreadsheet.export.concurrency}") int concurrency,
+				   @Value("${magic-spreadsheet.export.queue-depth}") int queueDepth,
+				   MeterRegistry meterRegistry) {
+
+		this.exporters = IntStream.range(0, concurrency)
+			.mapToObj(ExportExecutor::newExporter)
+			.collect(Collectors.toList());
+		this.idle.addAll(this.exporters);
+		this.queueDepth = queueDepth;
+
+		this.queueWait = Timer.builder("magic-spreadsheet.export.queue-wait")
+			.description("Time an export waits for a free exporter")
+			.register(meterRegistry);
+		this.duration = Timer.builder("magic-spreadsheet.export.duration")
+			.description("Time an export holds its exporter, from the first query to the last byte written")
+			.register(meterRegistry);
+		this.rejected = Counter.builder("magic-spreadsheet.export.rejected")
+			.description("Exports turned away because the queue was full")
+			.register(meterRegistry);
+
+		Gauge.builder("magic-spreadsheet.export.queued", this, ExportExecutor::queued)
+			.description("Exports waiting for a free exporter")
+			.register(meterRegistry);
+	}
+
+	/**
+	 * A single thread of its own, made by a plain thread factory rather than {@link Schedulers#newSingle(String)},
+	 * whose threads Reactor marks non-blocking. Exports read MongoDB cursors blocking, which Reactor refuses to do on
+	 * those threads.
+	 */
+	private static Scheduler newExporter(int i) {
+
+		return Schedulers.fromExecutorService(Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "exporter-" + i);
+			thread.setDaemon(true);
+			return thread;
+		}));
+	}
+
+	/**
+	 * Run the export once an exporter is free, handing it that exporter for all of its work. The exporter goes back
+	 * to the pool however the export ends, including when the client walks away.
+	 */
+	<T> Flux<T> execute(Function<Scheduler, Flux<T>> export) {
+
+		return Flux.defer(() -> {
+
+			long queuedAt = System.nanoTime();
+
+			return acquire().flatMapMany(exporter -> {
+
+				long startedAt = System.nanoTime();
+				queueWait.record(startedAt - queuedAt, NANOSECONDS);
+
+				return export.apply(exporter)
+					.subscribeOn(exporter)
+					.doFinally(signalType -> {
+						duration.record(System.nanoTime() - startedAt, NANOSECONDS);
+						release(exporter);
+					});
+			});
+		});
+	}
+
+	private Mono<Scheduler> acquire() {
+
+		return Mono.create(sink -> {
+
+			Waiter waiter = new Waiter(sink);
+			sink.onCancel(waiter::cancel);
+
+			synchronized (this) {
+
+				Scheduler exporter = idle.poll();
+
+				if (exporter != null) {
+					waiter.hand(exporter);
+					return;
+				}
+
+				if (waiting.size() < queueDepth) {
+					waiting.add(waiter);
+					return;
+				}
+			}
+
+			rejected.increment();
+			log.info("Turning away an export, " + queueDepth + " are already waiting");
+			sink.error(new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Too many exports in progress, try again shortly"));
+		});
+	}
+
+	/**
+	 * Hand the exporter to the next waiting export that hasn't given up, or put it back in the pool if there's none.
+	 */
+	private synchronized void release(Scheduler exporter) {
+
+		Waiter next;
+
+		while ((next = waiting.poll()) != null) {
+			if (next.hand(exporter)) {
+				return;
+			}
+		}
+
+		idle.add(exporter);
+	}
+
+	private synchronized void withdraw(Waiter waiter) {
+		waiting.remove(waiter);
+	}
+
+	private synchronized int queued() {
+		return waiting.size();
+	}
+
+	@PreDestroy
+	void dispose() {
+		exporters.forEach(Scheduler::dispose);
+	}
+
+	/**
+	 * An export waiting for its exporter. Being handed one and being cancelled race each other, so whichever comes
+	 * second sees what the first did: a cancelled export is never handed anything, and an export cancelled after being
+	 * handed its exporter, before it could start on it, gives it back.
+	 */
+	private class Waiter {
+
+		private static final int WAITING = 0;
+		private static final int HANDED = 1;
+		private static final int CANCELLED = 2;
+
+		private final MonoSink<Scheduler> sink;
+		private final AtomicInteger state = new AtomicInteger(WAITING);
+		private volatile Scheduler exporter;
+
+		Waiter(MonoSink<Scheduler> sink) {
+			this.sink = sink;
+		}
+
+		boolean hand(Scheduler exporter) {
+
+			this.exporter = exporter;
+
+			if (!state.compareAndSet(WAITING, HANDED)) {
+				return false;
+			}
+
+			sink.success(exporter);
+			return true;
+		}
+
+		/**
+		 * Only called when the sink's value will never reach the export.
+		 */
+		void cancel() {
+
+			if (state.compareAndSet(WAITING, CANCELLED)) {
+				withdraw(this);
+			} else {
+				release(exporter);
+			}
+		}
+	}
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.magicspreadsheet;
+
+import reactor.core.publisher.Mono;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+
+/**
+ * Release the {@link ExportCache.Lease} a download was served from once the response has been written, or the client
+ * has gone away. The handler's own {@link Mono} completes before the file is sent, so this is the first point where
+ * the export may safely be evicted.
+ *
+ * @author Greg Turnquist
+ */
+@Component
+class ExportLeaseFilter implements WebFilter {
+
+	static final String LEASE = ExportLeaseFilter.class.getName() + ".lease";
+
+	@Override
+	public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+
+		return chain.filter(exchange)
+			.doFinally(signal -> {
+				ExportCache.Lease lease = exchange.getAttribute(LEASE);
+				if (lease != null) {
+					lease.release();
+				}
+			});
+	}
+}
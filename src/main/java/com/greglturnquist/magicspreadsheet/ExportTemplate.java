@@ -0,0 +1,114 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.magicspreadsheet;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+/**
+ * The Magic Spreadsheet template every export starts from.
+ *
+ * Its bytes are read off the classpath once, through its stream, so it works from inside a jar. POI can't copy a
+ * parsed workbook, so instead one is always parsed ahead of time in the background, and an export takes that one and
+ * leaves the next to be parsed while it fills in its data.
+ *
+ * @author Greg Turnquist
+ */
+@Component
+@Slf4j
+class ExportTemplate {
+
+	static final String TEMPLATE = "sample-magic-spreadsheet.xlsm";
+
+	private final byte[] template;
+	private final AtomicReference<XSSFWorkbook> spare = new AtomicReference<>();
+
+	ExportTemplate() throws IOException {
+
+		ClassPathResource resource = new ClassPathResource(TEMPLATE);
+
+		if (resource.exists()) {
+			try (InputStream inputStream = resource.getInputStream()) {
+				this.template = StreamUtils.copyToByteArray(inputStream);
+			}
+			log.info("Loaded export template " + TEMPLATE + " (" + this.template.length + " bytes)");
+		} else {
+			this.template = null;
+			log.warn("Export template " + TEMPLATE + " is missing from the classpath, exports will fail");
+		}
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	void prepareOnStartup() {
+		prepareSpare();
+	}
+
+	/**
+	 * A freshly parsed template of the caller's own, ready or not.
+	 */
+	XSSFWorkbook workbook() {
+
+		XSSFWorkbook workbook = spare.getAndSet(null);
+
+		if (workbook == null) {
+			log.info("No spare export template ready, parsing one now");
+			workbook = parse();
+		}
+
+		prepareSpare();
+
+		return workbook;
+	}
+
+	private void prepareSpare() {
+
+		if (template == null) {
+			return;
+		}
+
+		Mono.fromCallable(this::parse)
+			.subscribeOn(Schedulers.elastic())
+			.subscribe(
+				workbook -> spare.compareAndSet(null, workbook),
+				throwable -> log.error("Failed to parse export template => " + throwable.getMessage()));
+	}
+
+	private XSSFWorkbook parse() {
+
+		if (template == null) {
+			throw new IllegalStateException("Export template " + TEMPLATE + " is missing from the classpath");
+		}
+
+		try {
+			return new XSSFWorkbook(new ByteArrayInputStream(template));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.magicspreadsheet;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+/**
+ * The Magic Spreadsheet template being filled in by an export, either entirely in memory or streaming its data sheets.
+ *
+ * In streaming mode the pre-formatted data rows of the AMS, royalty and KENP sheets are dropped from the template, and
+ * those sheets are written through an {@link SXSSFWorkbook} that keeps only a sliding window of rows in memory,
+ * flushing the rest to a temp file. Each new row is styled like the template's first data row, and gets back whatever
+ * formulas and values the template had in that row, as it would have kept them in memory. Template rows past the last
+ * one written are added back at the end. The small books and ad sheets are still filled in place, since their rows
+ * are revisited.
+ *
+ * @author Greg Turnquist
+ */
+@Slf4j
+class ExportWorkbook {
+
+	static final List<MagicSheets> STREAMED_SHEETS = Collections.unmodifiableList(Arrays.asList(
+		MagicSheets.AMS_DATA,
+		MagicSheets.EBOOK_ROYALTY_DATA,
+		MagicSheets.KENP_READ_DATA));
+
+	private final XSSFWorkbook template;
+	private final SXSSFWorkbook streamingWorkbook;
+	private final Map<String, StreamedSheet> streamedSheets;
+
+	private ExportWorkbook(XSSFWorkbook template, SXSSFWorkbook streamingWorkbook, Map<String, StreamedSheet> streamedSheets) {
+
+		this.template = template;
+		this.streamingWorkbook = streamingWorkbook;
+		this.streamedSheets = streamedSheets;
+	}
+
+	static ExportWorkbook inMemory(XSSFWorkbook template) {
+		return new ExportWorkbook(template, null, Collections.emptyMap());
+	}
+
+	static ExportWorkbook streaming(XSSFWorkbook template, int rowWindow) {
+
+		Map<String, StreamedSheet> streamedSheets = new HashMap<>();
+
+		STREAMED_SHEETS.forEach(magicSheet -> {
+
+			XSSFSheet sheet = template.getSheet(magicSheet.getSheetName());
+
+			StreamedSheet streamedSheet = new StreamedSheet(styles(sheet.getRow(1)));
+
+			for (int rownum = sheet.getLastRowNum(); rownum >= 1; rownum--) {
+				Row row = sheet.getRow(rownum);
+				if (row != null) {
+					streamedSheet.templateRows.put(rownum, cells(row));
+					sheet.removeRow(row);
+				}
+			}
+
+			streamedSheets.put(magicSheet.getSheetName(), streamedSheet);
+		});
+
+		SXSSFWorkbook streamingWorkbook = new SXSSFWorkbook(template, rowWindow);
+		streamingWorkbook.setCompressTempFiles(true);
+
+		return new ExportWorkbook(template, streamingWorkbook, streamedSheets);
+	}
+
+	boolean isStreaming() {
+		return this.streamingWorkbook != null;
+	}
+
+	Sheet sheet(String sheetName) {
+
+		if (isStreaming() && this.streamedSheets.containsKey(sheetName)) {
+			return this.streamingWorkbook.getSheet(sheetName);
+		}
+		return this.template.getSheet(sheetName);
+	}
+
+	/**
+	 * The row to fill in at {@code rownum}. Streamed sheets only ever append, so their rows must be asked for in order.
+	 */
+	Row row(Sheet sheet, int rownum) {
+
+		StreamedSheet streamedSheet = this.streamedSheets.get(sheet.getSheetName());
+
+		if (isStreaming() && streamedSheet != null) {
+			return streamedSheet.createRow(sheet, rownum);
+		}
+
+		Row row = sheet.getRow(rownum);
+		return row != null ? row : sheet.createRow(rownum);
+	}
+
+	void write(OutputStream outputStream) throws IOException {
+
+		if (isStreaming()) {
+			this.streamedSheets.forEach((sheetName, streamedSheet) ->
+				streamedSheet.restoreRemainingRows(this.streamingWorkbook.getSheet(sheetName)));
+		}
+
+		workbook().write(outputStream);
+	}
+
+	/**
+	 * Delete the streamed rows' temp files.
+	 */
+	void dispose() {
+
+		if (isStreaming() && !this.streamingWorkbook.dispose()) {
+			log.warn("Unable to delete every temp file of a streaming export");
+		}
+	}
+
+	private Workbook workbook() {
+		return isStreaming() ? this.streamingWorkbook : this.template;
+	}
+
+	private static List<CellStyle> styles(Row templateRow) {
+
+		List<CellStyle> styles = new ArrayList<>();
+
+		if (templateRow != null) {
+			for (int column = 0; column < templateRow.getLastCellNum(); column++) {
+				Cell cell = templateRow.getCell(column);
+				styles.add(cell == null ? null : cell.getCellStyle());
+			}
+		}
+
+		return styles;
+	}
+
+	private static List<TemplateCell> cells(Row templateRow) {
+
+		List<TemplateCell> cells = new ArrayList<>();
+
+		templateRow.forEach(cell -> {
+			if (cell.getCellType() != Cell.CELL_TYPE_BLANK) {
+				cells.add(new TemplateCell(cell));
+			}
+		});
+
+		return cells;
+	}
+
+	/**
+	 * What a streamed sheet's data rows looked like in the template.
+	 */
+	private static class StreamedSheet {
+
+		private final List<CellStyle> styles;
+		private final NavigableMap<Integer, List<TemplateCell>> templateRows = new TreeMap<>();
+		private int lastRownum = 0;
+
+		StreamedSheet(List<CellStyle> styles) {
+			this.styles = styles;
+		}
+
+		Row createRow(Sheet sheet, int rownum) {
+
+			Row row = sheet.createRow(rownum);
+			lastRownum = rownum;
+
+			for (int column = 0; column < styles.size(); column++) {
+				if (styles.get(column) != null) {
+					row.createCell(column).setCellStyle(styles.get(column));
+				}
+			}
+
+			List<TemplateCell> templateRow = templateRows.remove(rownum);
+
+			if (templateRow != null) {
+				templateRow.forEach(templateCell -> templateCell.copyTo(row));
+			}
+
+			return row;
+		}
+
+		/**
+		 * Put back the template rows past the last row written, which the in-memory workbook would have kept.
+		 */
+		void restoreRemainingRows(Sheet sheet) {
+
+			new ArrayList<>(templateRows.tailMap(lastRownum, false).keySet())
+				.forEach(rownum -> createRow(sheet, rownum));
+
+			templateRows.clear();
+		}
+	}
+
+	/**
+	 * One non-blank template cell: its style, and its formula or value.
+	 */
+	private static class TemplateCell {
+
+		private final int column;
+		private final CellStyle style;
+		private final int type;
+		private final String text;
+		private final double number;
+		private final boolean bool;
+
+		TemplateCell(Cell cell) {
+
+			this.column = cell.getColumnIndex();
+			this.style = cell.getCellStyle();
+			this.type = cell.getCellType();
+			this.text = type == Cell.CELL_TYPE_FORMULA ? cell.getCellFormula()
+				: type == Cell.CELL_TYPE_STRING ? cell.getStringCellValue()
+				: null;
+			this.number = type == Cell.CELL_TYPE_NUMERIC ? cell.getNumericCellValue() : 0.0;
+			this.bool = type == Cell.CELL_TYPE_BOOLEAN && cell.getBooleanCellValue();
+		}
+
+		void copyTo(Row row) {
+
+			Cell cell = row.getCell(column, Row.CREATE_NULL_AS_BLANK);
+			cell.setCellStyle(style);
+
+			switch (type) {
+				case Cell.CELL_TYPE_FORMULA:
+					cell.setCellFormula(text);
+					break;
+				case Cell.CELL_TYPE_STRING:
+					cell.setCellValue(text);
+					break;
+				case Cell.CELL_TYPE_NUMERIC:
+					cell.setCellValue(number);
+					break;
+				case Cell.CELL_TYPE_BOOLEAN:
+					cell.setCellValue(bool);
+					break;
+				default:
+					break;
+			}
+		}
+	}
+}
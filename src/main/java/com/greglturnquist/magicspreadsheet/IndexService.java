@@ -0,0 +1,101 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.magicspreadsheet;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+import java.util.List;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.util.ClassTypeInformation;
+import org.springframework.stereotype.Service;
+
+/**
+ * Create the indexes declared on each {@link org.springframework.data.mongodb.core.mapping.Document} class.
+ *
+ * Runs at startup, and again whenever {@link LoaderService} drops and reloads collections, since dropping a
+ * collection drops its indexes.
+ *
+ * @author Greg Turnquist
+ */
+@Service
+@Slf4j
+class IndexService {
+
+	static final List<Class<?>> DOCUMENTS = Arrays.asList(
+		Book.class,
+		AdTableObject.class,
+		AmsDataObject.class,
+		EbookRoyaltyDataObject.class,
+		KenpReadDataObject.class);
+
+	private final ReactiveMongoOperations operations;
+	private final MongoOperations blockingOperations;
+	private final IndexResolver indexResolver;
+
+	IndexService(ReactiveMongoOperations operations, MongoOperations blockingOperations, MongoMappingContext mappingContext) {
+
+		this.operations = operations;
+		this.blockingOperations = blockingOperations;
+		this.indexResolver = new MongoPersistentEntityIndexResolver(mappingContext);
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	void ensureIndexesOnStartup() {
+
+		ensureIndexes()
+			.thenMany(Flux.fromIterable(DOCUMENTS))
+			.concatMap(documentType -> operations.indexOps(documentType).getIndexInfo()
+				.map(indexInfo -> documentType.getSimpleName() + " => " + indexInfo.getName()))
+			.subscribe(
+				index -> log.info("Index found: " + index),
+				throwable -> log.error("Failed to create indexes => " + throwable.getMessage()));
+	}
+
+	Mono<Void> ensureIndexes() {
+
+		return Flux.fromIterable(DOCUMENTS)
+			.flatMap(this::ensureIndexes)
+			.then();
+	}
+
+	/**
+	 * Create one document type's indexes before returning, for loaders that query what they just inserted.
+	 */
+	void ensureIndexesNow(Class<?> documentType) {
+
+		indexResolver.resolveIndexFor(ClassTypeInformation.from(documentType))
+			.forEach(indexDefinition -> log.info("Ensured index " + documentType.getSimpleName() + " => "
+				+ blockingOperations.indexOps(documentType).ensureIndex(indexDefinition)));
+	}
+
+	private Flux<String> ensureIndexes(Class<?> documentType) {
+
+		return Flux.<IndexDefinition> fromIterable(indexResolver.resolveIndexFor(ClassTypeInformation.from(documentType)))
+			.flatMap(indexDefinition -> operations.indexOps(documentType).ensureIndex(indexDefinition))
+			.doOnNext(name -> log.info("Ensured index " + documentType.getSimpleName() + " => " + name));
+	}
+}
@@ -21,6 +21,8 @@ import lombok.Data;
 import java.time.LocalDate;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 /**
@@ -28,6 +30,12 @@ import org.springframework.data.mongodb.core.mapping.Document;
  */
 @Data
 @AllArgsConstructor
+@CompoundIndexes({
+	@CompoundIndex(name = "title_orderDate", def = "{'title': 1, 'orderDate': 1}", background = true),
+	@CompoundIndex(name = "titleKey_orderDate", def = "{'titleKey': 1, 'orderDate': 1}", background = true),
+	@CompoundIndex(name = "ASIN_orderDate", def = "{'ASIN': 1, 'orderDate': 1}", background = true),
+	@CompoundIndex(name = "orderDate_title_id", def = "{'orderDate': 1, 'title': 1, '_id': 1}", background = true)
+})
 @Document
 class KenpReadDataObject {
 
@@ -39,5 +47,5 @@ class KenpReadDataObject {
 	String ASIN;
 	String marketPlace;
 	double pagesRead;
-
+	String titleKey;
 }
@@ -27,12 +27,8 @@ import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
  */
 interface KenpReadRepository extends ReactiveMongoRepository<KenpReadDataObject, String> {
 
-	Flux<KenpReadDataObject> findByTitleLike(String title);
-
 	Mono<KenpReadDataObject> findByTitleAndOrderDate(String title, LocalDate date);
 
-	Flux<KenpReadDataObject> findByTitleLikeAndOrderDateAfter(String title, LocalDate date);
-
 	Flux<KenpReadDataObject> findByTitleAndOrderDateBetween(String title, LocalDate earlier, LocalDate later);
 
 	Flux<KenpReadDataObject> findByOrderDateAfter(LocalDate localDate, Sort sortByDateAndCampaignName);
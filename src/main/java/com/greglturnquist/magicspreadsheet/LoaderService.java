@@ -21,6 +21,7 @@ import static com.greglturnquist.magicspreadsheet.Utils.*;
 import static org.springframework.data.mongodb.core.query.Criteria.*;
 import static org.springframework.data.mongodb.core.query.Query.*;
 import static reactor.bool.BooleanUtils.*;
+import static reactor.function.TupleUtils.*;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -35,9 +36,17 @@ import java.text.SimpleDateFormat;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
@@ -46,11 +55,13 @@ import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.util.function.Tuples;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.data.mongodb.core.MongoOperations;
 import org.springframework.data.mongodb.core.ReactiveMongoOperations;
 import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
 
 /**
  * @author Greg Turnquist
@@ -68,15 +79,20 @@ class LoaderService {
 	private final AmsDataRepository amsDataRepository;
 	private final AdTableRepository adTableRepository;
 	private final EbookRoyaltyRepository ebookRoyaltyRepository;
+	private final IndexService indexService;
+	private final DatasetEvents datasetEvents;
 
 	LoaderService(MongoOperations operations, ReactiveMongoOperations reactiveOperations, AmsDataRepository amsDataRepository,
-				  AdTableRepository adTableRepository, EbookRoyaltyRepository ebookRoyaltyRepository) {
+				  AdTableRepository adTableRepository, EbookRoyaltyRepository ebookRoyaltyRepository,
+				  IndexService indexService, DatasetEvents datasetEvents) {
 
 		this.operations = operations;
 		this.reactiveOperations = reactiveOperations;
 		this.amsDataRepository = amsDataRepository;
 		this.adTableRepository = adTableRepository;
 		this.ebookRoyaltyRepository = ebookRoyaltyRepository;
+		this.indexService = indexService;
+		this.datasetEvents = datasetEvents;
 	}
 
 	Mono<Void> importMagicSpreadsheet(FilePart excelWorkbook) {
@@ -148,7 +164,9 @@ class LoaderService {
 						MagicSpreadsheetAmsDataColumn.AverageCpc.optionalNumericValue(row),
 						MagicSpreadsheetAmsDataColumn.Date.dateValue(row),
 						Optional.empty(),
-						Optional.empty());
+						Optional.empty(),
+						null,
+						null);
 				} catch (IllegalStateException|NullPointerException e) {
 					log.error("Failed to parse " + AMS_DATA.name() + ": rowNum=" + row.getRowNum() + " " + e.getMessage());
 					return null;
@@ -157,12 +175,18 @@ class LoaderService {
 			.filter(Objects::nonNull)
 			.forEach(operations::insert);
 
+		log.info("Indexing AMS Data before linking it to ads...");
+
+		indexService.ensureIndexesNow(AmsDataObject.class);
+
 		log.info("Dropping Ad Table Data...");
 
 		operations.dropCollection(AdTableObject.class);
 
 		log.info("Loading Ad Table Data...");
 
+		List<AdTableObject> linkedAds = new ArrayList<>();
+
 		AD_TABLE.stream(workbook)
 			.filter(row -> !MagicSpreadsheetAdDataColumn.CampaignName.stringValue(row).equals(""))
 			.map(row -> {
@@ -183,7 +207,13 @@ class LoaderService {
 				}
 			})
 			.filter(Objects::nonNull)
-			.forEach(operations::insert);
+			.forEach(adTableObject -> {
+				operations.insert(adTableObject);
+
+				if (StringUtils.hasText(adTableObject.getBookTitle())) {
+					linkedAds.add(adTableObject);
+				}
+			});
 
 		log.info("Dropping eBook Royalty data...");
 
@@ -207,7 +237,8 @@ class LoaderService {
 						MagicSpreadsheetEbookRoyaltyDataColumn.TransationType.stringValue(row),
 						MagicSpreadsheetEbookRoyaltyDataColumn.NetUnitsSold.cellType(row) == Cell.CELL_TYPE_NUMERIC ? MagicSpreadsheetEbookRoyaltyDataColumn.NetUnitsSold.numericValue(row) : Double.parseDouble(MagicSpreadsheetEbookRoyaltyDataColumn.NetUnitsSold.stringValue(row)),
 						MagicSpreadsheetEbookRoyaltyDataColumn.Royalty.cellType(row) == Cell.CELL_TYPE_NUMERIC ? MagicSpreadsheetEbookRoyaltyDataColumn.Royalty.numericValue(row) : Double.parseDouble(MagicSpreadsheetEbookRoyaltyDataColumn.Royalty.stringValue(row)),
-						MagicSpreadsheetEbookRoyaltyDataColumn.Currency.stringValue(row));
+						MagicSpreadsheetEbookRoyaltyDataColumn.Currency.stringValue(row),
+						titleKey(MagicSpreadsheetEbookRoyaltyDataColumn.Title.stringValue(row)));
 				} catch (IllegalStateException|IllegalArgumentException|DateTimeParseException e) {
 					log.error("Failed to parse " + EBOOK_ROYALTY_DATA.name() + ": rowNum=" + row.getRowNum());
 					return null;
@@ -223,6 +254,8 @@ class LoaderService {
 
 		log.info("Loading Book Setup Data...");
 
+		Map<String, Book> booksByTitle = new HashMap<>();
+
 		BOOKS_SETUP.stream(workbook)
 			.filter(row -> row.getCell(MagicSpreadsheetBookSetupColumn.Counter.index()) != null && !MagicSpreadsheetBookSetupColumn.BookTitle.stringValue(row).equals(""))
 			.map(row -> {
@@ -245,7 +278,15 @@ class LoaderService {
 				}
 			})
 			.filter(Objects::nonNull)
-			.forEach(operations::insert);
+			.forEach(book -> {
+				operations.insert(book);
+				booksByTitle.put(book.getTitle(), book);
+			});
+
+		log.info("Linking AMS Data to ads and their books...");
+
+		linkedAds.forEach(ad -> operations.updateMulti(amsDataOf(ad),
+			linkedTo(ad, booksByTitle.getOrDefault(ad.getBookTitle(), Book.NONE)), AmsDataObject.class));
 
 		log.info("Dropping KENP Read data...");
 
@@ -265,7 +306,8 @@ class LoaderService {
 						MagicSpreadsheetKenpReadDataColumn.AuthorName.stringValue(row),
 						MagicSpreadsheetKenpReadDataColumn.ASIN.stringValue(row),
 						MagicSpreadsheetKenpReadDataColumn.Marketplace.stringValue(row),
-						MagicSpreadsheetKenpReadDataColumn.PagesRead.numericValue(row));
+						MagicSpreadsheetKenpReadDataColumn.PagesRead.numericValue(row),
+						titleKey(MagicSpreadsheetKenpReadDataColumn.Title.stringValue(row)));
 				} catch (IllegalStateException|IllegalArgumentException|DateTimeParseException e) {
 					log.error("Failed to parse " + KENP_READ_DATA.name() + ": rowNum=" + row.getRowNum());
 					return null;
@@ -274,11 +316,17 @@ class LoaderService {
 			.filter(Objects::nonNull)
 			.forEach(operations::insert);
 
-		return Mono.empty();
+		log.info("Recreating indexes...");
+
+		return indexService.ensureIndexes()
+			.doOnSuccess(done -> datasetEvents.publish(DatasetChangedEvent.everything("magic-spreadsheet")));
 	}
 
 	Mono<Void> loadKdpRoyaltyReport(InputStream inputStream) {
 
+		Set<String> titleKeys = new HashSet<>();
+		Set<String> asins = new HashSet<>();
+
 		return Mono.fromRunnable(() -> {
 
 			Workbook workbook = null;
@@ -306,7 +354,8 @@ class LoaderService {
 							KdpRoyaltyEbookRoyaltyColumn.TransactionType.stringValue(row),
 							KdpRoyaltyEbookRoyaltyColumn.NetUnitsSold.cellType(row) == Cell.CELL_TYPE_NUMERIC ? KdpRoyaltyEbookRoyaltyColumn.NetUnitsSold.numericValue(row) : Double.parseDouble(KdpRoyaltyEbookRoyaltyColumn.NetUnitsSold.stringValue(row)),
 							KdpRoyaltyEbookRoyaltyColumn.Royalty.cellType(row) == Cell.CELL_TYPE_NUMERIC ? KdpRoyaltyEbookRoyaltyColumn.Royalty.numericValue(row) : Double.parseDouble(KdpRoyaltyEbookRoyaltyColumn.Royalty.stringValue(row)),
-							KdpRoyaltyEbookRoyaltyColumn.Currency.stringValue(row));
+							KdpRoyaltyEbookRoyaltyColumn.Currency.stringValue(row),
+							titleKey(KdpRoyaltyEbookRoyaltyColumn.Title.stringValue(row)));
 					} catch (IllegalStateException|IllegalArgumentException|DateTimeParseException e) {
 						log.error("Failed to parse " + EBOOK_ROYALTY.name() + ": rowNum=" + row.getRowNum() + " " + e.getMessage());
 						return null;
@@ -315,6 +364,9 @@ class LoaderService {
 				.filter(Objects::nonNull)
 				.filter(ebookRoyaltyDataObject -> !ebookRoyaltyDataObject.getTransactionType().contains("Free"))
 				.forEach(object -> {
+						titleKeys.add(object.getTitleKey());
+						asins.add(object.getASIN());
+
 						EbookRoyaltyDataObject item = operations.findOne(query(where("title").is(object.getTitle()).and("royaltyDate").is(object.getRoyaltyDate())), EbookRoyaltyDataObject.class);
 
 						if (item == null) {
@@ -325,6 +377,7 @@ class LoaderService {
 							item.setRoyalty(object.getRoyalty());
 							item.setNetUnitsSold(object.getNetUnitsSold());
 							item.setRoyaltyType(object.getRoyaltyType());
+							item.setTitleKey(object.getTitleKey());
 							operations.save(item);
 						}
 					});
@@ -343,7 +396,8 @@ class LoaderService {
 							KdpRoyaltyKenpPageReadsColumn.AuthorName.stringValue(row),
 							KdpRoyaltyKenpPageReadsColumn.ASIN.stringValue(row),
 							KdpRoyaltyKenpPageReadsColumn.Marketplace.stringValue(row),
-							KdpRoyaltyKenpPageReadsColumn.PagesRead.numericValue(row));
+							KdpRoyaltyKenpPageReadsColumn.PagesRead.numericValue(row),
+							titleKey(KdpRoyaltyKenpPageReadsColumn.Title.stringValue(row)));
 					} catch (IllegalStateException|IllegalArgumentException|DateTimeParseException e) {
 						log.error("Failed to parse " + KENP_READ.name() + ": rowNum=" + row.getRowNum() + " " + e.getMessage());
 						return null;
@@ -351,6 +405,9 @@ class LoaderService {
 				})
 				.filter(Objects::nonNull)
 				.forEach(object -> {
+					titleKeys.add(object.getTitleKey());
+					asins.add(object.getASIN());
+
 					KenpReadDataObject item = operations.findOne(query(where("title").is(object.getTitle()).and("orderDate").is(object.getOrderDate())), KenpReadDataObject.class);
 
 					if (item == null) {
@@ -359,11 +416,19 @@ class LoaderService {
 					} else {
 						log.info("Already found royalty statement for " + object.getTitle() + " on " + object.getOrderDate() + ". Updating...");
 						item.setPagesRead(object.getPagesRead());
+						item.setTitleKey(object.getTitleKey());
 						operations.save(item);
 					}
 				});
 
-		});
+		})
+			.thenMany(reactiveOperations.findAll(Book.class))
+			.filter(book -> titleKeys.contains(titleKey(book.getTitle()))
+				|| (StringUtils.hasText(book.getASIN()) && asins.contains(book.getASIN())))
+			.map(Book::getTitle)
+			.collect(Collectors.toSet())
+			.doOnNext(titles -> datasetEvents.publish(DatasetChangedEvent.of("kdp-royalty-report", titles, Collections.emptySet())))
+			.then();
 	}
 	
 	Mono<Void> loadAmsReport(Reader reader, LocalDate date) {
@@ -376,6 +441,15 @@ class LoaderService {
 
 			log.info("Loading AMS report for " + date.toString() + "!!!");
 
+			Mono<Map<String, AdTableObject>> linkedAds = adTableRepository.findAll()
+				.filter(adTableObject -> StringUtils.hasText(adTableObject.getBookTitle()))
+				.collectMap(AdTableObject::getCampaignName)
+				.cache();
+
+			Mono<Map<String, Book>> booksByTitle = reactiveOperations.findAll(Book.class)
+				.collectMap(Book::getTitle)
+				.cache();
+
 			return Flux.fromIterable(parser.getRecords())
 				.log("importAms-flatmapCsv")
 				.flatMap(csvRecord -> {
@@ -397,7 +471,9 @@ class LoaderService {
 							toOptionalDouble(csvRecord.get("Average CPC")),
 							date,
 							Optional.empty(),
-							Optional.empty()));
+							Optional.empty(),
+							null,
+							null));
 					} catch (DateTimeParseException e) {
 						log.error("Unable to parse #" + csvRecord.getRecordNumber() + " " + csvRecord.toString() + " => " + e.getMessage());
 						return Mono.empty();
@@ -407,6 +483,15 @@ class LoaderService {
 				.filterWhen(amsDataObject -> not(amsDataRepository.existsByCampaignNameAndDate(amsDataObject.getCampaignName(), amsDataObject.getDate())))
 				.filterWhen(amsDataObject -> not(amsDataRepository.existsByCampaignNameAndDateAfter(amsDataObject.getCampaignName(), amsDataObject.getDate())))
 				.log("importAms-filterOutAlreadyLoadedData")
+				.flatMap(amsDataObject -> Mono.zip(linkedAds, booksByTitle)
+					.map(function((ads, books) -> {
+						Optional.ofNullable(ads.get(amsDataObject.getCampaignName())).ifPresent(ad -> {
+							amsDataObject.setBookTitle(ad.getBookTitle());
+							amsDataObject.setSeries(books.getOrDefault(ad.getBookTitle(), Book.NONE).getSeries());
+						});
+						return amsDataObject;
+					})))
+				.log("importAms-linkToBook")
 //				.flatMap(amsDataObject -> Mono.zip(
 //					totalImpressions(amsDataObject.getCampaignName()),
 //					totalClicks(amsDataObject.getCampaignName()),
@@ -437,6 +522,14 @@ class LoaderService {
 //				.log("importAms-logitall")
 				.log("importAms-saveToMongoDB")
 				.flatMap(amsDataRepository::save)
+				.collect(() -> Tuples.<Set<String>, Set<String>> of(new HashSet<>(), new HashSet<>()), (titlesAndCampaigns, saved) -> {
+					if (saved.getBookTitle() != null) {
+						titlesAndCampaigns.getT1().add(saved.getBookTitle());
+					}
+					titlesAndCampaigns.getT2().add(saved.getCampaignName());
+				})
+				.doOnNext(titlesAndCampaigns -> datasetEvents.publish(DatasetChangedEvent.of("ams-report",
+					titlesAndCampaigns.getT1(), titlesAndCampaigns.getT2())))
 				.log("importAms-closeParser")
 				.then(Mono.fromRunnable(() -> {
 					try {
@@ -451,14 +544,12 @@ class LoaderService {
 
 	private Mono<Double> totalImpressions(String campaignName) {
 
-		return amsDataRepository.findByCampaignName(campaignName)
-			.reduce(0.0, (total, amsDataObject) -> total + amsDataObject.getImpressions().orElse(0.0));
+		return sum(amsDataRepository.findByCampaignName(campaignName), AmsDataObject::getImpressionsOrZero);
 	}
 
 	private Mono<Double> totalClicks(String campaignName) {
 
-		return amsDataRepository.findByCampaignName(campaignName)
-			.reduce(0.0, (total, amsDataObject) -> total + amsDataObject.getClicks().orElse(0.0));
+		return sum(amsDataRepository.findByCampaignName(campaignName), AmsDataObject::getClicksOrZero);
 	}
 
 	private static int toInt(long value) {
@@ -567,7 +658,9 @@ class LoaderService {
 			reactiveOperations.dropCollection(AdTableObject.class),
 			reactiveOperations.dropCollection(EbookRoyaltyDataObject.class),
 			reactiveOperations.dropCollection(Book.class),
-			reactiveOperations.dropCollection(KenpReadDataObject.class));
+			reactiveOperations.dropCollection(KenpReadDataObject.class))
+			.then(indexService.ensureIndexes())
+			.doOnSuccess(done -> datasetEvents.publish(DatasetChangedEvent.everything("delete-all")));
 	}
 
 //	Flux<String> findDuplicatelyNamedAds() {
@@ -588,11 +681,11 @@ class LoaderService {
 
 		return adTableRepository.findAll()
 			.log("normalizeAll-get-ad-data")
-			.map(AdTableObject::getCampaignName)
-			.log("normalizeAll-get-campaignName")
-			.flatMap(this::normalize)
+			.flatMap(adTableObject -> normalize(adTableObject.getCampaignName()).thenReturn(adTableObject))
 			.log("normalizeAll-normalize")
-			.then(Mono.empty());
+			.collectList()
+			.doOnNext(ads -> datasetEvents.publish(DatasetChangedEvent.ofAds("normalize", ads)))
+			.then();
 	}
 
 	private Mono<Void> normalize(String campaignName) {
@@ -615,15 +708,11 @@ class LoaderService {
 					current.setNextDate(Optional.of(next.getDate()));
 					next.setPreviousDate(Optional.of(current.getDate()));
 
-					current.setImpressions(
-						Optional.of(current.getRawImpressions().orElse(0.0) - prev.getRawImpressions().orElse(0.0)));
-					current.setClicks(
-						Optional.of(current.getRawClicks().orElse(0.0) - prev.getRawClicks().orElse(0.0)));
+					current.setImpressions(current.getRawImpressionsOrZero() - prev.getRawImpressionsOrZero());
+					current.setClicks(current.getRawClicksOrZero() - prev.getRawClicksOrZero());
 
-					next.setImpressions(
-						Optional.of(next.getRawImpressions().orElse(0.0) - current.getRawImpressions().orElse(0.0)));
-					next.setClicks(
-						Optional.of(next.getRawClicks().orElse(0.0) - current.getRawClicks().orElse(0.0)));
+					next.setImpressions(next.getRawImpressionsOrZero() - current.getRawImpressionsOrZero());
+					next.setClicks(next.getRawClicksOrZero() - current.getRawClicksOrZero());
 
 					return Mono.when(
 						reactiveOperations.save(prev),
@@ -1,18 +1,32 @@
 package com.greglturnquist.magicspreadsheet;
 
+import java.util.Collections;
+
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.boot.web.codec.CodecCustomizer;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.context.annotation.Bean;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
 import org.springframework.web.filter.reactive.HiddenHttpMethodFilter;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mongodb.connection.ConnectionPoolSettings;
 
 @SpringBootApplication
 @EnableCaching
 public class MagicSpreadsheetApplication {
 
+	/**
+	 * Newline-delimited JSON, one document per line, flushed as each element is written.
+	 */
+	static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+	static final MediaType APPLICATION_NDJSON = MediaType.parseMediaType(APPLICATION_NDJSON_VALUE);
+
 	public static void main(String[] args) {
 		SpringApplication.run(MagicSpreadsheetApplication.class, args);
 	}
@@ -24,6 +38,24 @@ public class MagicSpreadsheetApplication {
 			.build());
 	}
 
+	@Bean
+	CodecCustomizer ndjsonCodecCustomizer(ObjectMapper objectMapper) {
+
+		return configurer -> {
+			Jackson2JsonEncoder ndjsonEncoder = new Jackson2JsonEncoder(objectMapper, APPLICATION_NDJSON);
+			ndjsonEncoder.setStreamingMediaTypes(Collections.singletonList(APPLICATION_NDJSON));
+			configurer.customCodecs().encoder(ndjsonEncoder);
+		};
+	}
+
+	/**
+	 * @see CompactEncoding
+	 */
+	@Bean
+	MongoCustomConversions mongoCustomConversions(@Value("${magic-spreadsheet.storage.compact}") boolean compact) {
+		return new MongoCustomConversions(CompactEncoding.converters(compact));
+	}
+
 	@Bean
 	HiddenHttpMethodFilter hiddenHttpMethodFilter() {
 		return new HiddenHttpMethodFilter();
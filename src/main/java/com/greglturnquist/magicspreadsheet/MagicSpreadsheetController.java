@@ -19,6 +19,7 @@ import static com.greglturnquist.magicspreadsheet.Utils.bestGuess;
 
 import lombok.extern.slf4j.Slf4j;
 
+import java.time.Duration;
 import java.time.LocalDate;
 import java.util.Comparator;
 
@@ -26,6 +27,8 @@ import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.util.function.Tuple2;
 import reactor.util.function.Tuples;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -34,6 +37,7 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestPart;
+import org.springframework.web.bind.annotation.ResponseBody;
 
 /**
  * @author Greg Turnquist
@@ -47,17 +51,20 @@ public class MagicSpreadsheetController {
 	private final LoaderService loaderService;
 	private final EarningsService earningsService;
 	private final BookRepository bookRepository;
+	private final DatasetEvents datasetEvents;
 
 	public MagicSpreadsheetController(AdTableRepository adTableRepository,
 									  AdService adService, LoaderService loaderService,
 									  EarningsService earningsService,
-									  BookRepository bookRepository) {
+									  BookRepository bookRepository,
+									  DatasetEvents datasetEvents) {
 
 		this.adTableRepository = adTableRepository;
 		this.adService = adService;
 		this.loaderService = loaderService;
 		this.earningsService = earningsService;
 		this.bookRepository = bookRepository;
+		this.datasetEvents = datasetEvents;
 	}
 
 	@GetMapping("/")
@@ -208,8 +215,10 @@ public class MagicSpreadsheetController {
 		model.addAttribute("royalties", adService.unlinkedRoyalties()
 			.map(EbookRoyaltyDataDTO::new));
 
+		Mono<BookMatcher> bookMatcher = BookMatcher.of(bookRepository.findAll());
+
 		model.addAttribute("adTable", adService.unlinkedAds()
-			.flatMap(adTableObject -> bestGuess(bookRepository.findAll(), adTableObject).zipWith(Mono.just(adTableObject)))
+			.flatMap(adTableObject -> bestGuess(bookMatcher, adTableObject).zipWith(Mono.just(adTableObject)))
 			.map(objects -> new AdTableDTO(objects.getT2().updateAd(objects.getT1()), objects.getT1().getTitle())));
 
 		model.addAttribute("amsData", adService.unlinkedAmsData()
@@ -234,4 +243,22 @@ public class MagicSpreadsheetController {
 			.then(Mono.just("redirect:/"));
 	}
 
+	/**
+	 * Push a {@literal dataset-changed} event to open pages after every import, with a comment every so often to keep
+	 * idle connections from being closed.
+	 */
+	@GetMapping(path = "/datasetEvents", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	@ResponseBody
+	Flux<ServerSentEvent<DatasetChangedEvent>> datasetEvents() {
+
+		return Flux.merge(
+			datasetEvents.events()
+				.map(event -> ServerSentEvent.builder(event)
+					.event("dataset-changed")
+					.build()),
+			Flux.interval(Duration.ofSeconds(30))
+				.map(tick -> ServerSentEvent.<DatasetChangedEvent> builder()
+					.comment("keep-alive")
+					.build()));
+	}
 }
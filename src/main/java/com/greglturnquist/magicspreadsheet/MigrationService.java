@@ -0,0 +1,252 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.magicspreadsheet;
+
+import static com.greglturnquist.magicspreadsheet.Utils.*;
+import static org.springframework.data.mongodb.core.query.Criteria.*;
+import static org.springframework.data.mongodb.core.query.Query.*;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.Document;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuples;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+/**
+ * Bring documents imported by older versions of the app up to date with the current mapping.
+ *
+ * @author Greg Turnquist
+ */
+@Service
+@Slf4j
+class MigrationService {
+
+	private static final List<String> AMS_NUMBERS = Arrays.asList("impressions", "rawImpressions", "clicks", "rawClicks", "averageCpc");
+
+	/**
+	 * BSON type numbers.
+	 */
+	private static final int DOUBLE = 1;
+	private static final int EMBEDDED_DOCUMENT = 3;
+	private static final int DATE = 9;
+	private static final int INT = 16;
+	private static final int LONG = 18;
+
+	/**
+	 * Where the encoding stored data was last brought to is kept, so startup only scans for documents to re-encode
+	 * when the setting has changed.
+	 */
+	private static final String STORAGE_ENCODING = "storageEncoding";
+	private static final String APPLIED = "applied";
+
+	private final ReactiveMongoOperations operations;
+	private final boolean compact;
+
+	MigrationService(ReactiveMongoOperations operations, @Value("${magic-spreadsheet.storage.compact}") boolean compact) {
+
+		this.operations = operations;
+		this.compact = compact;
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	void migrateOnStartup() {
+
+		migrate()
+			.doOnError(throwable -> log.error("Failed to migrate existing data => " + throwable.getMessage()))
+			.subscribe();
+	}
+
+	Mono<Void> migrate() {
+		return Mono.when(backfillTitleKeys(), backfillAmsDataLinks(), unwrapAmsNumbers())
+			.then(storageEncodingChanged())
+			.flatMap(changed -> changed ? applyStorageEncoding() : Mono.empty());
+	}
+
+	/**
+	 * Royalty and KENP data loaded before {@code titleKey} existed need it computed from their title.
+	 */
+	Mono<Void> backfillTitleKeys() {
+
+		return Mono.when(
+			operations.find(query(where("titleKey").exists(false)), EbookRoyaltyDataObject.class)
+				.flatMap(royalty -> operations.updateFirst(
+					query(where("id").is(royalty.getId())),
+					Update.update("titleKey", titleKey(royalty.getTitle())),
+					EbookRoyaltyDataObject.class))
+				.count()
+				.doOnNext(count -> log.info("Backfilled titleKey on " + count + " eBook Royalty entries")),
+			operations.find(query(where("titleKey").exists(false)), KenpReadDataObject.class)
+				.flatMap(kenpRead -> operations.updateFirst(
+					query(where("id").is(kenpRead.getId())),
+					Update.update("titleKey", titleKey(kenpRead.getTitle())),
+					KenpReadDataObject.class))
+				.count()
+				.doOnNext(count -> log.info("Backfilled titleKey on " + count + " KENP Read entries")));
+	}
+
+	/**
+	 * AMS data loaded before book and series were copied onto it at link time needs them from its ad and book. AMS
+	 * data linked while the series came from the ad rather than its book needs the book's.
+	 */
+	Mono<Void> backfillAmsDataLinks() {
+
+		return operations.findAll(Book.class)
+			.collectMap(Book::getTitle)
+			.flatMap(books -> Mono.when(
+				operations.findAll(AdTableObject.class)
+					.filter(ad -> StringUtils.hasText(ad.getBookTitle()))
+					.flatMap(ad -> operations.updateMulti(
+						amsDataOf(ad).addCriteria(where("bookTitle").exists(false)),
+						linkedTo(ad, books.getOrDefault(ad.getBookTitle(), Book.NONE)),
+						AmsDataObject.class))
+					.reduce(0L, (count, updateResult) -> count + updateResult.getModifiedCount())
+					.doOnNext(count -> log.info("Backfilled book and series on " + count + " AMS entries")),
+				Flux.fromIterable(books.values())
+					.flatMap(book -> operations.updateMulti(
+						query(where("bookTitle").is(book.getTitle()).and("series").ne(book.getSeries())),
+						Update.update("series", book.getSeries()),
+						AmsDataObject.class))
+					.reduce(0L, (count, updateResult) -> count + updateResult.getModifiedCount())
+					.doOnNext(count -> log.info("Took the series from the book on " + count + " AMS entries"))));
+	}
+
+	/**
+	 * AMS numbers used to be {@code Optional<Double>}, stored as an embedded {@code {value: ...}} document that was
+	 * empty when the report had no value. Lift the value out, or mark it absent.
+	 */
+	Mono<Void> unwrapAmsNumbers() {
+
+		String collectionName = operations.getCollectionName(AmsDataObject.class);
+
+		Criteria wrapped = new Criteria().orOperator(AMS_NUMBERS.stream()
+			.map(field -> where(field).type(EMBEDDED_DOCUMENT))
+			.toArray(Criteria[]::new));
+
+		return operations.find(query(wrapped), Document.class, collectionName)
+			.flatMap(document -> {
+
+				Update update = new Update();
+
+				AMS_NUMBERS.forEach(field -> {
+					Object value = document.get(field);
+					if (value instanceof Document) {
+						Object unwrapped = ((Document) value).get("value");
+						update.set(field, unwrapped instanceof Number ? ((Number) unwrapped).doubleValue() : AmsDataObject.ABSENT);
+					}
+				});
+
+				return operations.updateFirst(query(where("_id").is(document.get("_id"))), update, collectionName);
+			})
+			.count()
+			.doOnNext(count -> log.info("Unwrapped impressions, clicks and CPC on " + count + " AMS entries"))
+			.then();
+	}
+
+	/**
+	 * Bring stored money and dates to whichever encoding {@literal magic-spreadsheet.storage.compact} asks for, so
+	 * {@link CompactEncoding} can be switched on, or back off. Also needed after restoring a snapshot, which may have
+	 * been taken under the other setting, since queries only ever match the configured one.
+	 */
+	Mono<Void> applyStorageEncoding() {
+
+		return Flux.fromIterable(IndexService.DOCUMENTS)
+			.map(operations::getCollectionName)
+			.flatMap(collectionName -> operations.find(query(storedTheOtherWay()), Document.class, collectionName)
+				.map(document -> Tuples.of(document.get("_id"), reencode(document)))
+				.filter(idAndUpdate -> !idAndUpdate.getT2().getUpdateObject().isEmpty())
+				.flatMap(idAndUpdate -> operations.updateFirst(query(where("_id").is(idAndUpdate.getT1())), idAndUpdate.getT2(), collectionName))
+				.count()
+				.doOnNext(count -> log.info("Re-encoded money and dates on " + count + " " + collectionName + " entries")))
+			.then(operations.upsert(query(where("_id").is(APPLIED)), Update.update("compact", compact), STORAGE_ENCODING))
+			.then();
+	}
+
+	/**
+	 * Whether stored data was last brought to a different encoding than the configured one, or never has been.
+	 */
+	private Mono<Boolean> storageEncodingChanged() {
+
+		return operations.findById(APPLIED, Document.class, STORAGE_ENCODING)
+			.map(applied -> !Boolean.valueOf(compact).equals(applied.getBoolean("compact")))
+			.defaultIfEmpty(true);
+	}
+
+	private Criteria storedTheOtherWay() {
+
+		List<Criteria> criteria = new ArrayList<>();
+
+		CompactEncoding.MONEY_FIELDS.forEach(field -> criteria.add(compact
+			? where(field).type(DOUBLE).ne(AmsDataObject.ABSENT)
+			: where(field).type(LONG)));
+
+		CompactEncoding.DATE_FIELDS.forEach(field -> {
+			criteria.add(where(field).type(compact ? DATE : INT));
+			criteria.add(where(field + ".value").type(compact ? DATE : INT));
+		});
+
+		return new Criteria().orOperator(criteria.toArray(new Criteria[0]));
+	}
+
+	private Update reencode(Document document) {
+
+		Update update = new Update();
+
+		document.forEach((field, value) -> {
+
+			if (CompactEncoding.MONEY_FIELDS.contains(field)) {
+				if (compact && value instanceof Double && !((Double) value).isNaN()) {
+					update.set(field, CompactEncoding.toMicros((Double) value));
+				} else if (!compact && value instanceof Long) {
+					update.set(field, CompactEncoding.fromMicros((Long) value));
+				}
+			}
+
+			if (CompactEncoding.DATE_FIELDS.contains(field)) {
+				if (value instanceof Document) {
+					reencodeDate(update, field + ".value", ((Document) value).get("value"));
+				} else {
+					reencodeDate(update, field, value);
+				}
+			}
+		});
+
+		return update;
+	}
+
+	private void reencodeDate(Update update, String field, Object value) {
+
+		if (compact && value instanceof Date) {
+			update.set(field, Math.toIntExact(CompactEncoding.localDate((Date) value).toEpochDay()));
+		} else if (!compact && value instanceof Integer) {
+			update.set(field, CompactEncoding.date(LocalDate.ofEpochDay((Integer) value)));
+		}
+	}
+}
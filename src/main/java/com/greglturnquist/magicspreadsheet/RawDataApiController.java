@@ -0,0 +1,236 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.magicspreadsheet;
+
+import static org.springframework.data.mongodb.core.query.Criteria.*;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Page through raw AMS, royalty and KENP data as JSON.
+ *
+ * Pages are keyed on (date, name, _id) rather than skipped over, so each one is a single range scan of the matching
+ * compound index no matter how deep into the history it is. The {@code /stream} variants instead send the whole
+ * range as NDJSON or server-sent events, one document at a time, so neither side holds it all in memory.
+ *
+ * @author Greg Turnquist
+ */
+@Controller
+@Slf4j
+class RawDataApiController {
+
+	private static final int MAX_PAGE_SIZE = 1000;
+
+	private final ReactiveMongoOperations operations;
+
+	RawDataApiController(ReactiveMongoOperations operations) {
+		this.operations = operations;
+	}
+
+	@GetMapping("/api/ams")
+	@ResponseBody
+	Mono<RawDataPage> ams(@RequestParam(name = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Optional<LocalDate> from,
+						  @RequestParam(name = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Optional<LocalDate> to,
+						  @RequestParam(name = "fields", required = false) Optional<List<String>> fields,
+						  @RequestParam(name = "after", required = false) Optional<String> after,
+						  @RequestParam(name = "size", defaultValue = "100") int size) {
+
+		return page(AmsDataObject.class, "date", "campaignName", from, to, fields, after, size);
+	}
+
+	@GetMapping("/api/royalties")
+	@ResponseBody
+	Mono<RawDataPage> royalties(@RequestParam(name = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Optional<LocalDate> from,
+								@RequestParam(name = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Optional<LocalDate> to,
+								@RequestParam(name = "fields", required = false) Optional<List<String>> fields,
+								@RequestParam(name = "after", required = false) Optional<String> after,
+								@RequestParam(name = "size", defaultValue = "100") int size) {
+
+		return page(EbookRoyaltyDataObject.class, "royaltyDate", "title", from, to, fields, after, size);
+	}
+
+	@GetMapping("/api/kenp")
+	@ResponseBody
+	Mono<RawDataPage> kenp(@RequestParam(name = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Optional<LocalDate> from,
+						   @RequestParam(name = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Optional<LocalDate> to,
+						   @RequestParam(name = "fields", required = false) Optional<List<String>> fields,
+						   @RequestParam(name = "after", required = false) Optional<String> after,
+						   @RequestParam(name = "size", defaultValue = "100") int size) {
+
+		return page(KenpReadDataObject.class, "orderDate", "title", from, to, fields, after, size);
+	}
+
+	@GetMapping(path = "/api/ams/stream", produces = {
+		MagicSpreadsheetApplication.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+	@ResponseBody
+	Flux<Map<String, Object>> amsStream(@RequestParam(name = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Optional<LocalDate> from,
+										@RequestParam(name = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Optional<LocalDate> to,
+										@RequestParam(name = "fields", required = false) Optional<List<String>> fields) {
+
+		return stream(AmsDataObject.class, "date", "campaignName", from, to, fields);
+	}
+
+	@GetMapping(path = "/api/royalties/stream", produces = {
+		MagicSpreadsheetApplication.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+	@ResponseBody
+	Flux<Map<String, Object>> royaltiesStream(@RequestParam(name = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Optional<LocalDate> from,
+											  @RequestParam(name = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Optional<LocalDate> to,
+											  @RequestParam(name = "fields", required = false) Optional<List<String>> fields) {
+
+		return stream(EbookRoyaltyDataObject.class, "royaltyDate", "title", from, to, fields);
+	}
+
+	@GetMapping(path = "/api/kenp/stream", produces = {
+		MagicSpreadsheetApplication.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+	@ResponseBody
+	Flux<Map<String, Object>> kenpStream(@RequestParam(name = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Optional<LocalDate> from,
+										 @RequestParam(name = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Optional<LocalDate> to,
+										 @RequestParam(name = "fields", required = false) Optional<List<String>> fields) {
+
+		return stream(KenpReadDataObject.class, "orderDate", "title", from, to, fields);
+	}
+
+	/**
+	 * Fetch one more document than asked for, just to learn whether there's another page after this one.
+	 */
+	private Mono<RawDataPage> page(Class<?> documentType, String dateField, String nameField,
+								   Optional<LocalDate> from, Optional<LocalDate> to, Optional<List<String>> fields,
+								   Optional<String> after, int size) {
+
+		int pageSize = Math.min(Math.max(size, 1), MAX_PAGE_SIZE);
+
+		Query query;
+		try {
+			query = keysetQuery(dateField, nameField, from, to, after.map(RawDataCursor::decode));
+		} catch (IllegalArgumentException e) {
+			return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e));
+		}
+
+		sortAndProject(query, dateField, nameField, fields).limit(pageSize + 1);
+
+		return operations.find(query, Document.class, operations.getCollectionName(documentType))
+			.collectList()
+			.map(documents -> {
+
+				List<Document> page = documents.subList(0, Math.min(documents.size(), pageSize));
+
+				String next = null;
+				if (documents.size() > pageSize) {
+					Document last = page.get(page.size() - 1);
+					next = new RawDataCursor(
+						(LocalDate) CompactEncoding.decode(dateField, last.get(dateField)),
+						last.getString(nameField),
+						last.getObjectId("_id")).encode();
+				}
+
+				List<Map<String, Object>> data = new ArrayList<>(page.size());
+				page.forEach(document -> data.add(toJson(document)));
+
+				return new RawDataPage(data, next);
+			});
+	}
+
+	/**
+	 * Everything in the date range, in index order, handed to the client as the cursor yields it.
+	 */
+	private Flux<Map<String, Object>> stream(Class<?> documentType, String dateField, String nameField,
+											 Optional<LocalDate> from, Optional<LocalDate> to, Optional<List<String>> fields) {
+
+		Query query = sortAndProject(keysetQuery(dateField, nameField, from, to, Optional.empty()), dateField, nameField, fields);
+
+		return operations.find(query, Document.class, operations.getCollectionName(documentType))
+			.map(RawDataApiController::toJson);
+	}
+
+	private static Query sortAndProject(Query query, String dateField, String nameField, Optional<List<String>> fields) {
+
+		query.with(Sort.by(dateField, nameField, "_id"));
+
+		fields.ifPresent(names -> {
+			names.forEach(name -> query.fields().include(name));
+			query.fields().include(dateField).include(nameField);
+		});
+
+		return query;
+	}
+
+	/**
+	 * Everything strictly after the cursor in (date, name, _id) order, within the date range. Documents without a date
+	 * are left out, since they have no place in that order for a cursor to point at.
+	 */
+	private static Query keysetQuery(String dateField, String nameField,
+									 Optional<LocalDate> from, Optional<LocalDate> to, Optional<RawDataCursor> after) {
+
+		List<Criteria> filters = new ArrayList<>();
+
+		filters.add(where(dateField).ne(null));
+		from.ifPresent(date -> filters.add(where(dateField).gte(date)));
+		to.ifPresent(date -> filters.add(where(dateField).lte(date)));
+		after.ifPresent(cursor -> filters.add(new Criteria().orOperator(
+			where(dateField).gt(cursor.getDate()),
+			namedAfter(where(dateField).is(cursor.getDate()).and(nameField), cursor.getName()),
+			where(dateField).is(cursor.getDate()).and(nameField).is(cursor.getName()).and("_id").gt(cursor.getId()))));
+
+		return Query.query(new Criteria().andOperator(filters.toArray(new Criteria[0])));
+	}
+
+	/**
+	 * Documents without a name sort before every named one, so after one of those, every named document comes next.
+	 * {@literal is(null)} above likewise matches both a {@literal null} and a missing name.
+	 */
+	private static Criteria namedAfter(Criteria nameField, String name) {
+		return name == null ? nameField.ne(null) : nameField.gt(name);
+	}
+
+	static Map<String, Object> toJson(Document document) {
+
+		Map<String, Object> json = new LinkedHashMap<>();
+
+		document.forEach((key, value) -> {
+			if (value instanceof ObjectId) {
+				json.put("_id".equals(key) ? "id" : key, ((ObjectId) value).toHexString());
+			} else {
+				json.put(key, CompactEncoding.decode(key, value));
+			}
+		});
+
+		return json;
+	}
+}
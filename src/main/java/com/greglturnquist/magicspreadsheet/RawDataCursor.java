@@ -0,0 +1,66 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.magicspreadsheet;
+
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+import org.bson.types.ObjectId;
+
+/**
+ * Position of the last document handed out in a {@link RawDataPage}, as its (date, name, _id) sort key.
+ *
+ * Clients only ever see it as an opaque, URL-safe token. A document with no name leaves the name off the token
+ * entirely, so it can't be mistaken for one named {@literal "null"}.
+ *
+ * @author Greg Turnquist
+ */
+@Value
+@RequiredArgsConstructor
+class RawDataCursor {
+
+	private static final String SEPARATOR = "|";
+
+	private final LocalDate date;
+	private final String name;
+	private final ObjectId id;
+
+	String encode() {
+
+		String key = this.date + SEPARATOR + this.id.toHexString() + (this.name == null ? "" : SEPARATOR + this.name);
+
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the token wasn't produced by {@link #encode()}
+	 */
+	static RawDataCursor decode(String token) {
+
+		try {
+			String[] parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split("\\|", 3);
+
+			return new RawDataCursor(LocalDate.parse(parts[0]), parts.length == 3 ? parts[2] : null, new ObjectId(parts[1]));
+		} catch (ArrayIndexOutOfBoundsException|DateTimeParseException e) {
+			throw new IllegalArgumentException("Malformed cursor " + token, e);
+		}
+	}
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.magicspreadsheet;
+
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One page of raw documents served by {@link RawDataApiController}, plus the cursor to fetch the page after it
+ * ({@literal null} on the last page).
+ *
+ * @author Greg Turnquist
+ */
+@Value
+@RequiredArgsConstructor
+class RawDataPage {
+
+	private final List<Map<String, Object>> data;
+	private final String next;
+}
@@ -24,6 +24,7 @@ import java.util.Optional;
 
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Sort;
 import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.stereotype.Controller;
@@ -33,6 +34,7 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RequestPart;
+import org.thymeleaf.spring5.context.webflux.ReactiveDataDriverContextVariable;
 
 /**
  * @author Greg Turnquist
@@ -45,14 +47,20 @@ class RoyaltyController {
 	private final EbookRoyaltyRepository ebookRoyaltyRepository;
 	private final KenpReadRepository kenpReadRepository;
 	private final LoaderService loaderService;
+	private final DatasetEvents datasetEvents;
+	private final int rawDataBufferSize;
 
 	RoyaltyController(EbookRoyaltyRepository ebookRoyaltyRepository,
 					  KenpReadRepository kenpReadRepository,
-					  LoaderService loaderService) {
+					  LoaderService loaderService,
+					  DatasetEvents datasetEvents,
+					  @Value("${magic-spreadsheet.raw-data.buffer-size}") int rawDataBufferSize) {
 		
 		this.ebookRoyaltyRepository = ebookRoyaltyRepository;
 		this.kenpReadRepository = kenpReadRepository;
 		this.loaderService = loaderService;
+		this.datasetEvents = datasetEvents;
+		this.rawDataBufferSize = rawDataBufferSize;
 	}
 
 	@GetMapping("/rawRoyaltyData")
@@ -69,31 +77,35 @@ class RoyaltyController {
 
 		Sort sortByDateAndCampaignName = Sort.by("royaltyDate", "title");
 
+		Flux<EbookRoyaltyDataDTO> royaltyData = Flux.empty();
+
 		if ("all".equals(window)) {
 
-			model.addAttribute("royaltyData", ebookRoyaltyRepository
+			royaltyData = ebookRoyaltyRepository
 				.findAll(sortByDateAndCampaignName)
-				.map(EbookRoyaltyDataDTO::new));
+				.map(EbookRoyaltyDataDTO::new);
 
 		} else if ("90days".equals(window)) {
 
-			model.addAttribute("royaltyData", ebookRoyaltyRepository
+			royaltyData = ebookRoyaltyRepository
 				.findByRoyaltyDateAfter(LocalDate.now().minusDays(90), sortByDateAndCampaignName)
-				.map(EbookRoyaltyDataDTO::new));
+				.map(EbookRoyaltyDataDTO::new);
 
 		} else if ("30days".equals(window)) {
 
-			model.addAttribute("royaltyData", ebookRoyaltyRepository
+			royaltyData = ebookRoyaltyRepository
 				.findByRoyaltyDateAfter(LocalDate.now().minusDays(30), sortByDateAndCampaignName)
-				.map(EbookRoyaltyDataDTO::new));
+				.map(EbookRoyaltyDataDTO::new);
 
 		} else if ("15days".equals(window)) {
 
-			model.addAttribute("royaltyData", ebookRoyaltyRepository
+			royaltyData = ebookRoyaltyRepository
 				.findByRoyaltyDateAfter(LocalDate.now().minusDays(15), sortByDateAndCampaignName)
-				.map(EbookRoyaltyDataDTO::new));
+				.map(EbookRoyaltyDataDTO::new);
 		}
 
+		model.addAttribute("royaltyData", new ReactiveDataDriverContextVariable(royaltyData, rawDataBufferSize));
+
 		return Mono.just("rawRoyaltyData");
 	}
 
@@ -111,31 +123,35 @@ class RoyaltyController {
 
 		Sort sortByDateAndCampaignName = Sort.by("orderDate", "title");
 
+		Flux<KenReadDataDTO> royaltyData = Flux.empty();
+
 		if ("all".equals(window)) {
 
-			model.addAttribute("royaltyData", kenpReadRepository
+			royaltyData = kenpReadRepository
 				.findAll(sortByDateAndCampaignName)
-				.map(KenReadDataDTO::new));
+				.map(KenReadDataDTO::new);
 
 		} else if ("90days".equals(window)) {
 
-			model.addAttribute("royaltyData", kenpReadRepository
+			royaltyData = kenpReadRepository
 				.findByOrderDateAfter(LocalDate.now().minusDays(90), sortByDateAndCampaignName)
-				.map(KenReadDataDTO::new));
+				.map(KenReadDataDTO::new);
 
 		} else if ("30days".equals(window)) {
 
-			model.addAttribute("royaltyData", kenpReadRepository
+			royaltyData = kenpReadRepository
 				.findByOrderDateAfter(LocalDate.now().minusDays(30), sortByDateAndCampaignName)
-				.map(KenReadDataDTO::new));
+				.map(KenReadDataDTO::new);
 
 		} else if ("15days".equals(window)) {
 
-			model.addAttribute("royaltyData", kenpReadRepository
+			royaltyData = kenpReadRepository
 				.findByOrderDateAfter(LocalDate.now().minusDays(15), sortByDateAndCampaignName)
-				.map(KenReadDataDTO::new));
+				.map(KenReadDataDTO::new);
 		}
 
+		model.addAttribute("royaltyData", new ReactiveDataDriverContextVariable(royaltyData, rawDataBufferSize));
+
 		return Mono.just("rawKenpData");
 	}
 
@@ -152,6 +168,7 @@ class RoyaltyController {
 	Mono<String> deleteAllRoyaltyData() {
 
 		return ebookRoyaltyRepository.deleteAll()
+			.then(datasetEvents.published(DatasetChangedEvent.everything("delete-royalty-data")))
 			.thenReturn("redirect:/rawRoyaltyData");
 	}
 
@@ -159,6 +176,7 @@ class RoyaltyController {
 	Mono<String> deleteAllKenpData() {
 
 		return kenpReadRepository.deleteAll()
+			.then(datasetEvents.published(DatasetChangedEvent.everything("delete-kenp-data")))
 			.thenReturn("redirect:/rawRoyaltyData");
 	}
 
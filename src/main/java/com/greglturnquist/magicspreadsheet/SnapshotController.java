@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.magicspreadsheet;
+
+import java.time.LocalDate;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestPart;
+
+/**
+ * @author Greg Turnquist
+ */
+@Controller
+class SnapshotController {
+
+	private final SnapshotService snapshotService;
+
+	SnapshotController(SnapshotService snapshotService) {
+		this.snapshotService = snapshotService;
+	}
+
+	@GetMapping("/export/snapshot")
+	ResponseEntity<Flux<DataBuffer>> snapshot() {
+
+		String filename = "magic-spreadsheet-snapshot-" + LocalDate.now() + ".bson.gz";
+
+		return ResponseEntity.ok()
+			.header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
+			.contentType(MediaType.APPLICATION_OCTET_STREAM)
+			.body(snapshotService.snapshot());
+	}
+
+	@PostMapping("/import/snapshot")
+	Mono<String> restore(@RequestPart(name = "snapshot") Flux<FilePart> snapshot) {
+
+		return snapshot
+			.concatMap(snapshotService::restore)
+			.then(Mono.just("redirect:/"));
+	}
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.magicspreadsheet;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.bson.ByteBuf;
+import org.bson.RawBsonDocument;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SynchronousSink;
+import reactor.core.scheduler.Schedulers;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.stereotype.Service;
+
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.reactivestreams.client.MongoCollection;
+
+/**
+ * Dump every collection into one compressed binary snapshot, and load one back in, far faster than going through the
+ * Magic Spreadsheet.
+ *
+ * A snapshot is gzipped. After a short header, each collection is its name followed by its documents as raw BSON,
+ * which already starts with its own length, ended by a zero length. Documents are copied as the bytes MongoDB hands
+ * over and inserted back the same way, in unordered batches, so neither side ever decodes them. Indexes are rebuilt
+ * once everything is in, and stored money and dates are brought to the configured encoding, in case the snapshot was
+ * taken under the other one.
+ *
+ * @author Greg Turnquist
+ */
+@Service
+@Slf4j
+class SnapshotService {
+
+	private static final byte[] MAGIC = "MSSNAP1".getBytes(StandardCharsets.US_ASCII);
+	private static final int BATCH_SIZE = 1000;
+	private static final int CONCURRENT_BATCHES = 4;
+
+	private final ReactiveMongoOperations operations;
+	private final ExportExecutor exportExecutor;
+	private final IndexService indexService;
+	private final MigrationService migrationService;
+	private final DatasetEvents datasetEvents;
+
+	SnapshotService(ReactiveMongoOperations operations, ExportExecutor exportExecutor,
+					IndexService indexService, MigrationService migrationService, DatasetEvents datasetEvents) {
+
+		this.operations = operations;
+		this.exportExecutor = exportExecutor;
+		this.indexService = indexService;
+		this.migrationService = migrationService;
+		this.datasetEvents = datasetEvents;
+	}
+
+	Flux<DataBuffer> snapshot() {
+		return exportExecutor.execute(exporter -> DataBufferPipe.stream(this::writeSnapshot, exporter));
+	}
+
+	/**
+	 * Wipe out existing data and replace it with the snapshot's.
+	 */
+	Mono<Long> restore(FilePart snapshotFilePart) {
+
+		return Mono.fromCallable(() -> Files.createTempFile("snapshot-", ".gz"))
+			.flatMap(snapshotFile -> snapshotFilePart.transferTo(snapshotFile.toFile())
+				.then(restore(snapshotFile))
+				.doFinally(signalType -> snapshotFile.toFile().delete()));
+	}
+
+	/**
+	 * Read the whole snapshot through once before touching anything, so a file that isn't a snapshot, or one cut short,
+	 * fails the restore with the existing data still in place.
+	 */
+	Mono<Long> restore(Path snapshotFile) {
+
+		return verify(snapshotFile)
+			.thenMany(Flux.fromIterable(IndexService.DOCUMENTS))
+			.flatMap(operations::dropCollection)
+			.thenMany(Flux.generate(() -> new SnapshotReader(snapshotFile, collectionNames()), SnapshotReader::next, SnapshotReader::close)
+				.subscribeOn(Schedulers.elastic()))
+			.flatMap(this::insert, CONCURRENT_BATCHES)
+			.reduce(0L, Long::sum)
+			.flatMap(count -> indexService.ensureIndexes()
+				.then(migrationService.applyStorageEncoding())
+				.thenReturn(count))
+			.doOnSuccess(count -> {
+				log.info("Restored " + count + " documents from snapshot");
+				datasetEvents.publish(DatasetChangedEvent.everything("snapshot"));
+			});
+	}
+
+	private Mono<Long> verify(Path snapshotFile) {
+
+		return Mono.fromCallable(() -> {
+				try (SnapshotReader reader = new SnapshotReader(snapshotFile, collectionNames())) {
+					return reader.scan();
+				}
+			})
+			.subscribeOn(Schedulers.elastic())
+			.doOnNext(count -> log.info("Snapshot " + snapshotFile + " holds " + count + " documents"));
+	}
+
+	/**
+	 * Runs on the writer's own thread, so blocking on each collection's cursor holds up nothing else.
+	 */
+	private void writeSnapshot(OutputStream outputStream) throws IOException {
+
+		DataOutputStream snapshot = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(outputStream, DataBufferPipe.CHUNK_SIZE)));
+
+		snapshot.write(MAGIC);
+
+		for (String collectionName : collectionNames()) {
+
+			long count = 0;
+
+			snapshot.writeBoolean(true);
+			snapshot.writeUTF(collectionName);
+
+			for (RawBsonDocument document : Flux.from(rawCollection(collectionName).find()).toIterable()) {
+
+				ByteBuf bytes = document.getByteBuffer();
+				byte[] bson = new byte[bytes.remaining()];
+				bytes.get(bson);
+
+				snapshot.write(bson);
+				count++;
+			}
+
+			snapshot.writeInt(0);
+
+			log.info("Wrote " + count + " documents from " + collectionName + " to snapshot");
+		}
+
+		snapshot.writeBoolean(false);
+		snapshot.close();
+	}
+
+	private Mono<Long> insert(Batch batch) {
+
+		return Mono.from(rawCollection(batch.collectionName).insertMany(batch.documents, new InsertManyOptions().ordered(false)))
+			.thenReturn((long) batch.documents.size());
+	}
+
+	private MongoCollection<RawBsonDocument> rawCollection(String collectionName) {
+		return operations.getCollection(collectionName).withDocumentClass(RawBsonDocument.class);
+	}
+
+	private Set<String> collectionNames() {
+
+		return IndexService.DOCUMENTS.stream()
+			.map(operations::getCollectionName)
+			.collect(Collectors.toCollection(LinkedHashSet::new));
+	}
+
+	private static class Batch {
+
+		private final String collectionName;
+		private final List<RawBsonDocument> documents;
+
+		Batch(String collectionName, List<RawBsonDocument> documents) {
+
+			this.collectionName = collectionName;
+			this.documents = documents;
+		}
+	}
+
+	/**
+	 * Read a snapshot back a batch at a time, never more than one collection per batch.
+	 */
+	private static class SnapshotReader implements AutoCloseable {
+
+		private final DataInputStream snapshot;
+		private final Set<String> collectionNames;
+
+		private String collectionName = null;
+
+		SnapshotReader(Path snapshotFile, Set<String> collectionNames) throws IOException {
+
+			this.snapshot = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(snapshotFile))));
+			this.collectionNames = collectionNames;
+
+			byte[] magic = new byte[MAGIC.length];
+			this.snapshot.readFully(magic);
+
+			if (!Arrays.equals(magic, MAGIC)) {
+				throw new IOException("Not a Magic Spreadsheet snapshot");
+			}
+		}
+
+		SnapshotReader next(SynchronousSink<Batch> sink) {
+
+			try {
+				while (collectionName == null) {
+
+					if (!snapshot.readBoolean()) {
+						sink.complete();
+						return this;
+					}
+
+					collectionName = snapshot.readUTF();
+
+					if (!collectionNames.contains(collectionName)) {
+						throw new IOException("Snapshot has unknown collection " + collectionName);
+					}
+				}
+
+				List<RawBsonDocument> documents = new ArrayList<>(BATCH_SIZE);
+				String batchCollectionName = collectionName;
+
+				while (documents.size() < BATCH_SIZE) {
+
+					RawBsonDocument document = readDocument();
+
+					if (document == null) {
+						collectionName = null;
+						break;
+					}
+
+					documents.add(document);
+				}
+
+				if (documents.isEmpty()) {
+					return next(sink);
+				}
+
+				sink.next(new Batch(batchCollectionName, documents));
+			} catch (IOException e) {
+				sink.error(e);
+			}
+
+			return this;
+		}
+
+		/**
+		 * Walk every collection to the end marker, and on to the end of the gzip stream so its checksum is checked too.
+		 *
+		 * @return how many documents the snapshot holds
+		 */
+		long scan() throws IOException {
+
+			long count = 0;
+
+			while (snapshot.readBoolean()) {
+
+				String name = snapshot.readUTF();
+
+				if (!collectionNames.contains(name)) {
+					throw new IOException("Snapshot has unknown collection " + name);
+				}
+
+				while (readDocument() != null) {
+					count++;
+				}
+			}
+
+			if (snapshot.read() != -1) {
+				throw new IOException("Snapshot has data after its end marker");
+			}
+
+			return count;
+		}
+
+		/**
+		 * BSON starts with its length as a little-endian int, counting those four bytes. A zero ends the collection.
+		 */
+		private RawBsonDocument readDocument() throws IOException {
+
+			byte[] lengthBytes = new byte[4];
+			snapshot.readFully(lengthBytes);
+
+			int length = (lengthBytes[0] & 0xff)
+				| (lengthBytes[1] & 0xff) << 8
+				| (lengthBytes[2] & 0xff) << 16
+				| (lengthBytes[3] & 0xff) << 24;
+
+			if (length == 0) {
+				return null;
+			}
+
+			if (length < 5) {
+				throw new EOFException("Corrupt snapshot, document length " + length);
+			}
+
+			byte[] bson = new byte[length];
+			System.arraycopy(lengthBytes, 0, bson, 0, 4);
+			snapshot.readFully(bson, 4, length - 4);
+
+			return new RawBsonDocument(bson);
+		}
+
+		@Override
+		public void close() {
+
+			try {
+				snapshot.close();
+			} catch (IOException e) {
+				log.warn("Unable to close snapshot => " + e.getMessage());
+			}
+		}
+	}
+}
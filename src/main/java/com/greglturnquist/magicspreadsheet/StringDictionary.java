@@ -0,0 +1,134 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.magicspreadsheet;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterLoadEvent;
+import org.springframework.stereotype.Component;
+
+/**
+ * One shared copy of each campaign name, title, author, marketplace and the like.
+ *
+ * Those values repeat on every AMS, royalty and KENP row, so every document loaded from MongoDB has its copies
+ * swapped for the dictionary's before it's mapped, and rows held in memory or in caches all point at the same
+ * strings. Once the dictionary holds {@literal magic-spreadsheet.dictionary.max-size} values it starts over, so values
+ * seen since keep being shared, and it's emptied whenever the whole dataset is dropped or replaced, so it doesn't hold
+ * on to values nothing has any more.
+ *
+ * @author Greg Turnquist
+ */
+@Component
+@Slf4j
+class StringDictionary extends AbstractMongoEventListener<Object> {
+
+	static final Set<String> FIELDS = new HashSet<>(Arrays.asList(
+		"campaignName", "bookTitle", "series", "status", "type",
+		"title", "titleKey", "authorName", "author", "ASIN",
+		"marketplace", "marketPlace", "currency", "royaltyType", "transactionType"));
+
+	private final DatasetEvents datasetEvents;
+	private final int maxSize;
+
+	private final Map<String, String> values = new ConcurrentHashMap<>();
+
+	StringDictionary(DatasetEvents datasetEvents, @Value("${magic-spreadsheet.dictionary.max-size}") int maxSize) {
+
+		this.datasetEvents = datasetEvents;
+		this.maxSize = maxSize;
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	void clearWhenEverythingChanges() {
+
+		datasetEvents.events()
+			.filter(DatasetChangedEvent::isEverything)
+			.subscribe(event -> clear());
+	}
+
+	@Override
+	public void onAfterLoad(AfterLoadEvent<Object> event) {
+		intern(event.getDocument());
+	}
+
+	void intern(Document document) {
+
+		if (document == null) {
+			return;
+		}
+
+		FIELDS.forEach(field -> {
+			Object value = document.get(field);
+			if (value instanceof String) {
+				document.put(field, intern((String) value));
+			}
+		});
+	}
+
+	/**
+	 * The dictionary's copy of the value, or the value itself if it's {@literal null} or new. Lookups don't lock; only
+	 * adding a value does, so the size limit holds however many loads run at once.
+	 */
+	String intern(String value) {
+
+		if (value == null) {
+			return null;
+		}
+
+		String shared = values.get(value);
+
+		if (shared != null) {
+			return shared;
+		}
+
+		synchronized (this) {
+
+			shared = values.get(value);
+
+			if (shared != null) {
+				return shared;
+			}
+
+			if (values.size() >= maxSize) {
+				log.info("String dictionary reached " + maxSize + " values, starting over");
+				values.clear();
+			}
+
+			values.put(value, value);
+
+			return value;
+		}
+	}
+
+	synchronized void clear() {
+		values.clear();
+	}
+
+	int size() {
+		return values.size();
+	}
+}
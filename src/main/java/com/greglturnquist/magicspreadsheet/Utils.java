@@ -15,17 +15,29 @@
  */
 package com.greglturnquist.magicspreadsheet;
 
+import static org.springframework.data.mongodb.core.query.Criteria.*;
+import static org.springframework.data.mongodb.core.query.Query.*;
+
 import lombok.extern.slf4j.Slf4j;
 
 import java.time.LocalDate;
 import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
 
 import org.apache.poi.ss.usermodel.Row;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.util.function.Tuple2;
 import reactor.util.function.Tuples;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.util.StringUtils;
 
 /**
  * @author Greg Turnquist
@@ -53,6 +65,32 @@ class Utils {
 	}
 
 
+	/**
+	 * All AMS data recorded for an ad's campaign.
+	 *
+	 * @param ad
+	 * @return
+	 */
+	static Query amsDataOf(AdTableObject ad) {
+		return query(where("campaignName").is(ad.getCampaignName()));
+	}
+
+	/**
+	 * Copy an ad's book, and that book's series, onto its AMS data, so per-book and per-series ad metrics don't have
+	 * to go through the ad table. The series comes from the book rather than the ad's own Series column, the same as
+	 * for per-series sales and page reads.
+	 *
+	 * @param ad
+	 * @param book the book the ad is linked to, or {@link Book#NONE}
+	 * @return
+	 */
+	static Update linkedTo(AdTableObject ad, Book book) {
+
+		return new Update()
+			.set("bookTitle", ad.getBookTitle())
+			.set("series", book.getSeries());
+	}
+
 	static Book royaltyToBook(EbookRoyaltyDataObject ebookRoyaltyDataObject) {
 
 		return new Book(
@@ -70,11 +108,10 @@ class Utils {
 		);
 	}
 
-	static Mono<Book> bestGuess(Flux<Book> books, AdTableObject ad) {
+	static Mono<Book> bestGuess(Mono<BookMatcher> bookMatcher, AdTableObject ad) {
 
-		return books
-			.filter(ad::referencesBook)
-			.next()
+		return bookMatcher
+			.map(matcher -> matcher.bestMatch(ad.getCampaignName()).orElse(Book.NONE))
 			.switchIfEmpty(Mono.just(Book.NONE));
 	}
 
@@ -82,6 +119,22 @@ class Utils {
 		return longTitle.split(":")[0];
 	}
 
+	/**
+	 * Normalized lookup key for a title: the main title, trimmed and case-folded. Stored on royalty and KENP
+	 * data at import time so lookups by book are equality matches rather than regular expressions.
+	 *
+	 * @param longTitle
+	 * @return
+	 */
+	static String titleKey(String longTitle) {
+
+		if (longTitle == null) {
+			return "";
+		}
+
+		return mainTitle(longTitle).trim().toLowerCase(Locale.ROOT);
+	}
+
 	static String subTitle(String longTitle) {
 		
 		if (longTitle.contains(":")) {
@@ -92,8 +145,19 @@ class Utils {
 	}
 
 	static Mono<List<Tuple2<Double, LocalDate>>> clicksPerSale(EbookRoyaltyRepository royaltyRepository, AmsDataRepository amsDataRepository, String title) {
+		return clicksPerSale(royaltyRepository, amsDataRepository, title, null);
+	}
+
+	/**
+	 * Like {@link AdService}'s royalty lookups, match a book's royalties by ASIN as well as by title key when it has one.
+	 */
+	static Mono<List<Tuple2<Double, LocalDate>>> clicksPerSale(EbookRoyaltyRepository royaltyRepository, AmsDataRepository amsDataRepository, String title, String asin) {
+
+		Flux<EbookRoyaltyDataObject> royalties = StringUtils.hasText(asin)
+			? royaltyRepository.findByTitleKeyOrASIN(titleKey(title), asin)
+			: royaltyRepository.findByTitleKey(titleKey(title));
 
-		return royaltyRepository.findByTitleLike(title)
+		return royalties
 			.map(EbookRoyaltyDataObject::getRoyaltyDate)
 			.buffer(2, 1)
 			.flatMap(interval -> {
@@ -126,10 +190,7 @@ class Utils {
 	 * @return
 	 */
 	static Mono<Double> clicksPerTitlePerRange(AmsDataRepository repository, String title, LocalDate date1, LocalDate date2) {
-
-		return repository.findByCampaignNameAndDateBetween(title, date1, date2)
-			.map(amsDataObject -> amsDataObject.getClicks().orElse(0.0))
-			.reduce(0.0, (subtotal, clicks) -> subtotal + clicks);
+		return sum(repository.findByCampaignNameAndDateBetween(title, date1, date2), AmsDataObject::getClicksOrZero);
 	}
 
 	static Double unitsSoldViaPageReads(Double kenpc, Double totalPageReads) {
@@ -140,4 +201,50 @@ class Utils {
 			return 0.0;
 		}
 	}
+
+	/**
+	 * Add up a value over all the items in one running primitive total, rather than boxing a new subtotal per item.
+	 */
+	static <T> Mono<Double> sum(Flux<T> items, ToDoubleFunction<? super T> value) {
+
+		return items
+			.collect(() -> new double[1], (total, item) -> total[0] += value.applyAsDouble(item))
+			.map(total -> total[0]);
+	}
+
+	/**
+	 * Add up an amount of money over all the items in whole millionths, so the total doesn't pick up floating-point
+	 * drift however many items there are, converting it back to a plain amount only once at the end.
+	 */
+	static <T> Mono<Double> sumMoney(Flux<T> items, ToLongFunction<? super T> micros) {
+
+		return items
+			.collect(() -> new long[1], (total, item) -> total[0] += micros.applyAsLong(item))
+			.map(total -> CompactEncoding.fromMicros(total[0]));
+	}
+
+	/**
+	 * Pick out one page of the items as ranked by {@code order}, without sorting everything.
+	 *
+	 * Only the first {@code (page + 1) * limit} items are ever held, in a heap whose head is the worst of them, so
+	 * ranking a catalog of n items for the top k costs O(n log k) instead of O(n log n).
+	 */
+	static <T> Flux<T> topK(Flux<T> items, Comparator<? super T> order, int page, int limit) {
+
+		long k = (page + 1L) * limit;
+
+		return items
+			.collect(() -> new PriorityQueue<T>(order.reversed()), (heap, item) -> {
+				heap.add(item);
+				if (heap.size() > k) {
+					heap.poll();
+				}
+			})
+			.flatMapMany(heap -> {
+				List<T> ranked = new ArrayList<>(heap);
+				ranked.sort(order);
+				return Flux.fromIterable(ranked);
+			})
+			.skip((long) page * limit);
+	}
 }
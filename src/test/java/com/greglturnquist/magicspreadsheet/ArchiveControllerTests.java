@@ -0,0 +1,135 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.magicspreadsheet;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.BDDMockito.*;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.util.StreamUtils;
+import org.springframework.util.StringUtils;
+
+/**
+ * @author Greg Turnquist
+ */
+public class ArchiveControllerTests {
+
+	ObjectId id = new ObjectId();
+
+	ReactiveMongoOperations operations = mock(ReactiveMongoOperations.class);
+	ExportExecutor exportExecutor = new ExportExecutor(1, 1, new SimpleMeterRegistry());
+	ArchiveController archiveController;
+
+	@Before
+	public void setUp() {
+
+		MongoMappingContext mappingContext = new MongoMappingContext();
+		mappingContext.setSimpleTypeHolder(new MongoCustomConversions(Collections.emptyList()).getSimpleTypeHolder());
+
+		IndexService.DOCUMENTS.forEach(documentType -> {
+			String collectionName = StringUtils.uncapitalize(documentType.getSimpleName());
+			given(operations.getCollectionName(documentType)).willReturn(collectionName);
+			given(operations.findAll(Document.class, collectionName)).willReturn(Flux.empty());
+		});
+
+		given(operations.findAll(Document.class, "amsDataObject")).willReturn(Flux.just(
+			new Document("_id", id).append("campaignName", "Darklight - auto").append("impressions", 120.0).append("clicks", AmsDataObject.ABSENT)));
+
+		archiveController = new ArchiveController(operations, mappingContext,
+			Jackson2ObjectMapperBuilder.json().build(), exportExecutor);
+	}
+
+	@After
+	public void tearDown() {
+		exportExecutor.dispose();
+	}
+
+	@Test
+	public void ndjsonArchiveHasOneLinePerDocument() throws IOException {
+
+		Map<String, String> entries = unzip(archiveController.archive("ndjson"));
+
+		assertThat(entries).containsOnlyKeys("book.ndjson", "adTableObject.ndjson", "amsDataObject.ndjson",
+			"ebookRoyaltyDataObject.ndjson", "kenpReadDataObject.ndjson");
+		assertThat(entries.get("amsDataObject.ndjson"))
+			.isEqualTo("{\"id\":\"" + id.toHexString() + "\",\"campaignName\":\"Darklight - auto\",\"impressions\":120.0,\"clicks\":null}\n");
+		assertThat(entries.get("book.ndjson")).isEmpty();
+	}
+
+	@Test
+	public void csvArchiveHasAHeaderOfEveryMappedProperty() throws IOException {
+
+		Map<String, String> entries = unzip(archiveController.archive("csv"));
+
+		assertThat(entries).containsKey("amsDataObject.csv");
+
+		String[] lines = entries.get("amsDataObject.csv").split("\r\n");
+
+		assertThat(lines).hasSize(2);
+		assertThat(lines[0]).startsWith("id,").contains("campaignName", "impressions", "averageCpc");
+		assertThat(lines[1]).startsWith(id.toHexString() + ",").contains("Darklight - auto", "120.0").doesNotContain("NaN");
+	}
+
+	private static Map<String, String> unzip(ResponseEntity<Flux<DataBuffer>> response) throws IOException {
+
+		ByteArrayOutputStream zip = new ByteArrayOutputStream();
+
+		response.getBody()
+			.doOnNext(dataBuffer -> {
+				byte[] bytes = new byte[dataBuffer.readableByteCount()];
+				dataBuffer.read(bytes);
+				DataBufferUtils.release(dataBuffer);
+				zip.write(bytes, 0, bytes.length);
+			})
+			.blockLast(Duration.ofSeconds(10));
+
+		Map<String, String> entries = new LinkedHashMap<>();
+
+		try (ZipInputStream entryStream = new ZipInputStream(new ByteArrayInputStream(zip.toByteArray()), StandardCharsets.UTF_8)) {
+			ZipEntry entry;
+			while ((entry = entryStream.getNextEntry()) != null) {
+				entries.put(entry.getName(), StreamUtils.copyToString(entryStream, StandardCharsets.UTF_8));
+			}
+		}
+
+		return entries;
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.magicspreadsheet;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * @author Greg Turnquist
+ */
+public class BookMatcherTests {
+
+	Book darkness = book("Darkness", "DK");
+	Book darknessFalls = book("Darkness Falls", "DF");
+	Book lightBringer = book("Light Bringer", "");
+
+	BookMatcher matcher = new BookMatcher(Arrays.asList(lightBringer, darknessFalls, darkness));
+
+	@Test
+	public void matchesTitleInsideCampaignName() {
+		assertThat(matcher.bestMatch("2018-08 Light Bringer auto")).contains(lightBringer);
+	}
+
+	@Test
+	public void matchesBookShort() {
+		assertThat(matcher.bestMatch("DF - keywords")).contains(darknessFalls);
+	}
+
+	@Test
+	public void longestMatchWins() {
+
+		assertThat(matcher.bestMatch("Darkness Falls keywords")).contains(darknessFalls);
+		assertThat(matcher.bestMatch("Darkness keywords")).contains(darkness);
+		assertThat(matcher.bestMatch("DK Darkness Falls")).contains(darknessFalls);
+	}
+
+	@Test
+	public void earliestMatchWinsAmongEquallyLongOnes() {
+		assertThat(matcher.bestMatch("DF vs DK")).contains(darknessFalls);
+		assertThat(matcher.bestMatch("DK vs DF")).contains(darkness);
+	}
+
+	@Test
+	public void noMatch() {
+
+		assertThat(matcher.bestMatch("Something else entirely")).isEmpty();
+		assertThat(matcher.bestMatch("")).isEmpty();
+		assertThat(matcher.bestMatch(null)).isEmpty();
+	}
+
+	private static Book book(String title, String bookShort) {
+		return new Book(null, -1, -1, title, "", "", bookShort, "", null, "", 0.1);
+	}
+}
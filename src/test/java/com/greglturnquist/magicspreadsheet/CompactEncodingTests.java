@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.magicspreadsheet;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.time.LocalDate;
+
+import org.bson.Document;
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+
+/**
+ * @author Greg Turnquist
+ */
+public class CompactEncodingTests {
+
+	@Test
+	public void moneyRoundTripsThroughMicros() {
+
+		Document document = new Document("royalty", 2.09).append("budget", AmsDataObject.ABSENT).append("netUnitsSold", 3.0);
+
+		CompactEncoding.encodeMoney(document);
+
+		assertThat(document.get("royalty")).isEqualTo(2_090_000L);
+		assertThat((Double) document.get("budget")).isNaN();
+		assertThat(document.get("netUnitsSold")).isEqualTo(3.0);
+
+		CompactEncoding.decodeMoney(document);
+
+		assertThat(document.get("royalty")).isEqualTo(2.09);
+	}
+
+	@Test
+	public void microsSumWithoutDrift() {
+
+		Flux<Double> amounts = Flux.range(0, 1000).map(i -> 0.1);
+
+		assertThat(amounts.reduce(0.0, Double::sum).block()).isNotEqualTo(100.0);
+		assertThat(Utils.sumMoney(amounts, CompactEncoding::toMicros).block()).isEqualTo(100.0);
+	}
+
+	@Test
+	public void rawValuesDecodeToDatesAndAmounts() {
+
+		LocalDate date = LocalDate.of(2018, 8, 14);
+
+		assertThat(CompactEncoding.decode("royaltyDate", Math.toIntExact(date.toEpochDay()))).isEqualTo(date);
+		assertThat(CompactEncoding.decode("royaltyDate", CompactEncoding.date(date))).isEqualTo(date);
+		assertThat(CompactEncoding.decode("rowNum", 17)).isEqualTo(17);
+		assertThat(CompactEncoding.decode("totalSpend", 1_500_000L)).isEqualTo(1.5);
+	}
+
+	@Test
+	public void absentNumbersReadAsNull() {
+
+		assertThat(CompactEncoding.decode("clicks", AmsDataObject.ABSENT)).isNull();
+		assertThat(CompactEncoding.decode("clicks", 3.0)).isEqualTo(3.0);
+	}
+}
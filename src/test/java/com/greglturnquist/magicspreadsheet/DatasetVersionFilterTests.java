@@ -0,0 +1,84 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.magicspreadsheet;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import reactor.core.publisher.Mono;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.WebFilterChain;
+
+/**
+ * @author Greg Turnquist
+ */
+public class DatasetVersionFilterTests {
+
+	DatasetVersion datasetVersion = new DatasetVersion();
+	DatasetVersionFilter filter = new DatasetVersionFilter(datasetVersion);
+
+	AtomicInteger rendered = new AtomicInteger();
+	WebFilterChain chain = exchange -> Mono.fromRunnable(rendered::incrementAndGet);
+
+	@Test
+	public void unchangedDatasetAnswers304WithoutRendering() {
+
+		MockServerWebExchange first = MockServerWebExchange.from(MockServerHttpRequest.get("/conversions"));
+		filter.filter(first, chain).block();
+
+		String etag = first.getResponse().getHeaders().getETag();
+
+		assertThat(etag).isEqualTo(datasetVersion.etag());
+		assertThat(rendered).hasValue(1);
+
+		MockServerWebExchange second = MockServerWebExchange.from(MockServerHttpRequest.get("/conversions")
+			.ifNoneMatch(etag));
+		filter.filter(second, chain).block();
+
+		assertThat(second.getResponse().getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+		assertThat(rendered).hasValue(1);
+	}
+
+	@Test
+	public void changedDatasetRendersAgain() {
+
+		String etag = datasetVersion.etag();
+
+		datasetVersion.bump();
+
+		MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/individualReport/{title}", "Test Book")
+			.ifNoneMatch(etag));
+		filter.filter(exchange, chain).block();
+
+		assertThat(exchange.getResponse().getStatusCode()).isNotEqualTo(HttpStatus.NOT_MODIFIED);
+		assertThat(exchange.getResponse().getHeaders().getETag()).isEqualTo(datasetVersion.etag());
+		assertThat(rendered).hasValue(1);
+	}
+
+	@Test
+	public void otherPagesAreLeftAlone() {
+
+		MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/rawAmsData"));
+		filter.filter(exchange, chain).block();
+
+		assertThat(exchange.getResponse().getHeaders().getETag()).isNull();
+		assertThat(rendered).hasValue(1);
+	}
+}
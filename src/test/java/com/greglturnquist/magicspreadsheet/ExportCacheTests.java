@@ -0,0 +1,121 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.magicspreadsheet;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Greg Turnquist
+ */
+public class ExportCacheTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void leastRecentlyDownloadedExportIsEvictedFirst() throws IOException {
+
+		ExportCache exportCache = new ExportCache(folder.getRoot().getPath(), 1);
+
+		Path first = exportCache.put(1, outputStream -> outputStream.write(new byte[400 * 1024]));
+		Path second = exportCache.put(2, outputStream -> outputStream.write(new byte[400 * 1024]));
+
+		assertThat(exportCache.get(1)).contains(first);
+
+		Path third = exportCache.put(3, outputStream -> outputStream.write(new byte[400 * 1024]));
+
+		assertThat(exportCache.get(1)).contains(first);
+		assertThat(exportCache.get(2)).isEmpty();
+		assertThat(exportCache.get(3)).contains(third);
+		assertThat(second).doesNotExist();
+	}
+
+	@Test
+	public void exportsBeingServedAreNotEvictedUntilReleased() throws IOException {
+
+		ExportCache exportCache = new ExportCache(folder.getRoot().getPath(), 1);
+
+		exportCache.put(1, outputStream -> outputStream.write(new byte[400 * 1024]));
+		ExportCache.Lease second = exportCache.lease(2, outputStream -> outputStream.write(new byte[400 * 1024]));
+		ExportCache.Lease first = exportCache.lease(1).get();
+
+		exportCache.put(3, outputStream -> outputStream.write(new byte[400 * 1024]));
+
+		assertThat(first.getPath()).exists();
+		assertThat(second.getPath()).exists();
+
+		second.release();
+
+		assertThat(second.getPath()).doesNotExist();
+		assertThat(exportCache.get(2)).isEmpty();
+
+		first.release();
+		first.release();
+
+		assertThat(exportCache.get(1)).contains(first.getPath());
+		assertThat(exportCache.get(3)).isPresent();
+	}
+
+	@Test
+	public void failedExportsLeaveNothingBehind() throws IOException {
+
+		ExportCache exportCache = new ExportCache(folder.getRoot().getPath(), 1);
+
+		assertThatThrownBy(() -> exportCache.put(1, outputStream -> {
+			outputStream.write(new byte[1024]);
+			throw new IOException("Workbook failed to write");
+		})).isInstanceOf(IOException.class);
+
+		assertThat(exportCache.get(1)).isEmpty();
+		assertThat(Files.list(folder.getRoot().toPath())).isEmpty();
+	}
+
+	@Test
+	public void missingFilesNoLongerCountAgainstTheLimit() throws IOException {
+
+		ExportCache exportCache = new ExportCache(folder.getRoot().getPath(), 1);
+
+		Path first = exportCache.put(1, outputStream -> outputStream.write(new byte[400 * 1024]));
+		Path second = exportCache.put(2, outputStream -> outputStream.write(new byte[400 * 1024]));
+
+		Files.delete(first);
+		assertThat(exportCache.get(1)).isEmpty();
+
+		exportCache.put(3, outputStream -> outputStream.write(new byte[400 * 1024]));
+
+		assertThat(exportCache.get(2)).contains(second);
+	}
+
+	@Test
+	public void startupOnlyClearsItsOwnFiles() throws IOException {
+
+		Path leftover = folder.newFile("export-7.xlsm").toPath();
+		Path unrelated = folder.newFile("notes.txt").toPath();
+
+		new ExportCache(folder.getRoot().getPath(), 1);
+
+		assertThat(leftover).doesNotExist();
+		assertThat(unrelated).exists();
+	}
+}
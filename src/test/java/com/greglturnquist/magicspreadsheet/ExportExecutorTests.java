@@ -0,0 +1,125 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.magicspreadsheet;
+
+import static org.assertj.core.api.Assertions.*;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.DirectProcessor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.MonoProcessor;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * @author Greg Turnquist
+ */
+public class ExportExecutorTests {
+
+	SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	ExportExecutor exportExecutor = new ExportExecutor(1, 1, meterRegistry);
+
+	@After
+	public void tearDown() {
+		exportExecutor.dispose();
+	}
+
+	@Test
+	public void exportsBeyondTheQueueAreTurnedAway() {
+
+		DirectProcessor<String> running = DirectProcessor.create();
+		Disposable first = exportExecutor.execute(exporter -> running).subscribe();
+
+		MonoProcessor<List<String>> queued = exportExecutor.execute(exporter -> Flux.just("queued"))
+			.collectList()
+			.toProcessor();
+
+		StepVerifier.create(exportExecutor.execute(exporter -> Flux.just("rejected")))
+			.expectErrorSatisfies(throwable -> {
+				assertThat(throwable).isInstanceOf(ResponseStatusException.class);
+				assertThat(((ResponseStatusException) throwable).getStatus()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+			})
+			.verify(Duration.ofSeconds(5));
+
+		running.onComplete();
+
+		assertThat(queued.block(Duration.ofSeconds(5))).containsExactly("queued");
+		assertThat(meterRegistry.get("magic-spreadsheet.export.rejected").counter().count()).isEqualTo(1.0);
+		assertThat(meterRegistry.get("magic-spreadsheet.export.queue-wait").timer().count()).isEqualTo(2);
+
+		first.dispose();
+	}
+
+	@Test
+	public void abandonedExportsFreeTheirExporter() {
+
+		Disposable abandoned = exportExecutor.execute(exporter -> Flux.<String> never()).subscribe();
+
+		abandoned.dispose();
+
+		StepVerifier.create(exportExecutor.execute(exporter -> Flux.just("next")))
+			.expectNext("next")
+			.verifyComplete();
+	}
+
+	@Test
+	public void queuedExportsCancelledWhileAnotherFinishesDontLoseTheExporter() throws InterruptedException {
+
+		for (int i = 0; i < 200; i++) {
+
+			DirectProcessor<String> running = DirectProcessor.create();
+			exportExecutor.execute(exporter -> running).subscribe();
+			Disposable queued = exportExecutor.execute(exporter -> Flux.<String> never()).subscribe();
+
+			CountDownLatch start = new CountDownLatch(1);
+			CountDownLatch done = new CountDownLatch(2);
+
+			Schedulers.elastic().schedule(() -> awaitThen(start, running::onComplete, done));
+			Schedulers.elastic().schedule(() -> awaitThen(start, queued::dispose, done));
+
+			start.countDown();
+			assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+
+			StepVerifier.create(exportExecutor.execute(exporter -> Flux.just("next")))
+				.expectNext("next")
+				.expectComplete()
+				.verify(Duration.ofSeconds(5));
+		}
+	}
+
+	private static void awaitThen(CountDownLatch start, Runnable action, CountDownLatch done) {
+
+		try {
+			start.await();
+			action.run();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			done.countDown();
+		}
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.magicspreadsheet;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+/**
+ * @author Greg Turnquist
+ */
+public class ExportWorkbookTests {
+
+	@Test
+	public void streamingKeepsTheTemplatesDataRowFormulas() throws IOException {
+
+		XSSFWorkbook inMemory = export(ExportWorkbook.inMemory(template()));
+
+		ExportWorkbook streaming = ExportWorkbook.streaming(template(), 1);
+		XSSFWorkbook streamed;
+		try {
+			streamed = export(streaming);
+		} finally {
+			streaming.dispose();
+		}
+
+		ExportWorkbook.STREAMED_SHEETS.forEach(magicSheet -> {
+
+			Sheet expected = inMemory.getSheet(magicSheet.getSheetName());
+			Sheet actual = streamed.getSheet(magicSheet.getSheetName());
+
+			assertThat(actual.getLastRowNum()).isEqualTo(expected.getLastRowNum()).isEqualTo(3);
+
+			for (int rownum = 0; rownum <= 3; rownum++) {
+				for (int column = 0; column <= 2; column++) {
+					assertThat(contents(actual.getRow(rownum).getCell(column)))
+						.as(magicSheet.getSheetName() + " row " + rownum + " column " + column)
+						.isEqualTo(contents(expected.getRow(rownum).getCell(column)));
+				}
+			}
+		});
+
+		Sheet amsData = streamed.getSheet(MagicSheets.AMS_DATA.getSheetName());
+
+		assertThat(amsData.getRow(1).getCell(0).getNumericCellValue()).isEqualTo(10.0);
+		assertThat(amsData.getRow(2).getCell(1).getCellFormula()).isEqualTo("A3*2");
+		assertThat(amsData.getRow(3).getCell(1).getCellFormula()).isEqualTo("A4*2");
+		assertThat(amsData.getRow(3).getCell(2).getStringCellValue()).isEqualTo("template");
+	}
+
+	/**
+	 * Fill in the first two data rows of every streamed sheet, leaving the template's third one as it was.
+	 */
+	private static XSSFWorkbook export(ExportWorkbook workbook) throws IOException {
+
+		for (MagicSheets magicSheet : ExportWorkbook.STREAMED_SHEETS) {
+
+			Sheet sheet = workbook.sheet(magicSheet.getSheetName());
+
+			for (int rownum = 1; rownum <= 2; rownum++) {
+				workbook.row(sheet, rownum).getCell(0, Row.CREATE_NULL_AS_BLANK).setCellValue(rownum * 10);
+			}
+		}
+
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		workbook.write(outputStream);
+
+		return new XSSFWorkbook(new ByteArrayInputStream(outputStream.toByteArray()));
+	}
+
+	private static XSSFWorkbook template() {
+
+		XSSFWorkbook template = new XSSFWorkbook();
+
+		for (MagicSheets magicSheet : ExportWorkbook.STREAMED_SHEETS) {
+
+			Sheet sheet = template.createSheet(magicSheet.getSheetName());
+			sheet.createRow(0).createCell(0).setCellValue("Header");
+
+			for (int rownum = 1; rownum <= 3; rownum++) {
+				Row row = sheet.createRow(rownum);
+				row.createCell(0);
+				row.createCell(1).setCellFormula("A" + (rownum + 1) + "*2");
+				row.createCell(2).setCellValue("template");
+			}
+		}
+
+		return template;
+	}
+
+	private static String contents(Cell cell) {
+
+		if (cell == null) {
+			return "";
+		}
+
+		switch (cell.getCellType()) {
+			case Cell.CELL_TYPE_FORMULA:
+				return "=" + cell.getCellFormula();
+			case Cell.CELL_TYPE_NUMERIC:
+				return String.valueOf(cell.getNumericCellValue());
+			case Cell.CELL_TYPE_STRING:
+				return cell.getStringCellValue();
+			case Cell.CELL_TYPE_BOOLEAN:
+				return String.valueOf(cell.getBooleanCellValue());
+			default:
+				return "";
+		}
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.magicspreadsheet;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.time.LocalDate;
+
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+/**
+ * @author Greg Turnquist
+ */
+public class RawDataCursorTests {
+
+	private final LocalDate date = LocalDate.parse("2018-08-11");
+	private final ObjectId id = new ObjectId();
+
+	@Test
+	public void namesRoundTrip() {
+
+		assertThat(RawDataCursor.decode(new RawDataCursor(date, "Darklight | auto", id).encode()))
+			.isEqualTo(new RawDataCursor(date, "Darklight | auto", id));
+		assertThat(RawDataCursor.decode(new RawDataCursor(date, "", id).encode()).getName()).isEmpty();
+	}
+
+	@Test
+	public void missingNameIsNotTheStringNull() {
+
+		assertThat(RawDataCursor.decode(new RawDataCursor(date, null, id).encode()).getName()).isNull();
+		assertThat(RawDataCursor.decode(new RawDataCursor(date, "null", id).encode()).getName()).isEqualTo("null");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsForeignTokens() {
+		RawDataCursor.decode("bm90LWEtY3Vyc29y");
+	}
+}
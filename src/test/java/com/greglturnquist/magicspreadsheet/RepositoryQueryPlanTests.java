@@ -0,0 +1,449 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.magicspreadsheet;
+
+import static org.assertj.core.api.Assertions.*;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Method;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Run every derived query, and the queries built by hand in services, against a seeded local MongoDB and
+ * {@code explain} the commands they send. A query whose plan has no index scan, or which examines far more
+ * documents than it returns, fails the build.
+ *
+ * @author Greg Turnquist
+ */
+@Slf4j
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "spring.data.mongodb.database=magic-spreadsheet-query-plans")
+public class RepositoryQueryPlanTests {
+
+	static final List<String> QUERY_COMMANDS = Arrays.asList("find", "aggregate", "count", "distinct", "findAndModify");
+
+	static final int MAX_DOCS_EXAMINED_PER_DOC_RETURNED = 4;
+
+	static final LocalDate START = LocalDate.parse("2018-06-01");
+
+	static final int DAYS = 30;
+	static final int TITLES = 10;
+	static final int CAMPAIGNS = 20;
+
+	static final CommandCapture commands = new CommandCapture();
+
+	@TestConfiguration
+	static class CommandCaptureConfig {
+
+		@Bean
+		MongoClientSettingsBuilderCustomizer commandCaptureCustomizer() {
+			return clientSettingsBuilder -> clientSettingsBuilder.addCommandListener(commands);
+		}
+	}
+
+	@Autowired ReactiveMongoOperations operations;
+	@Autowired IndexService indexService;
+
+	@Autowired AmsDataRepository amsDataRepository;
+	@Autowired AdTableRepository adTableRepository;
+	@Autowired BookRepository bookRepository;
+	@Autowired EbookRoyaltyRepository ebookRoyaltyRepository;
+	@Autowired KenpReadRepository kenpReadRepository;
+
+	@Autowired RawDataApiController rawDataApiController;
+	@Autowired AdService adService;
+
+	@Before
+	public void setUp() {
+
+		Flux.fromIterable(IndexService.DOCUMENTS)
+			.flatMap(operations::dropCollection)
+			.blockLast();
+
+		Flux.merge(
+			operations.insertAll(books()),
+			operations.insertAll(ads()),
+			operations.insertAll(amsData()),
+			operations.insertAll(royalties()),
+			operations.insertAll(kenpReads()))
+			.blockLast();
+
+		indexService.ensureIndexes().block();
+	}
+
+	@After
+	public void tearDown() {
+		Mono.from(operations.getMongoDatabase().drop()).block();
+	}
+
+	@Test
+	public void amsDataQueriesUseIndexes() {
+
+		Map<String, Supplier<Publisher<?>>> queries = new LinkedHashMap<>();
+
+		queries.put("findByCampaignName", () -> amsDataRepository.findByCampaignName(campaign(3)));
+		queries.put("findByCampaignNameOrderByDate", () -> amsDataRepository.findByCampaignNameOrderByDate(campaign(3)));
+		queries.put("existsByCampaignNameAndStatus", () -> amsDataRepository.existsByCampaignNameAndStatus(campaign(3), "ENABLED"));
+		queries.put("findByCampaignNameAndDateAfter", () -> amsDataRepository.findByCampaignNameAndDateAfter(campaign(3), day(20)));
+		queries.put("findByDateAfter", () -> amsDataRepository.findByDateAfter(day(25), Sort.by("date", "campaignName")));
+		queries.put("findByCampaignNameAndDate", () -> amsDataRepository.findByCampaignNameAndDate(campaign(3), day(10)));
+		queries.put("existsByCampaignNameAndDate", () -> amsDataRepository.existsByCampaignNameAndDate(campaign(3), day(10)));
+		queries.put("existsByCampaignNameAndDateAfter", () -> amsDataRepository.existsByCampaignNameAndDateAfter(campaign(3), day(10)));
+		queries.put("findByCampaignNameAndDateBetween", () -> amsDataRepository.findByCampaignNameAndDateBetween(campaign(3), day(5), day(15)));
+		queries.put("findByCampaignNameIn", () -> amsDataRepository.findByCampaignNameIn(Arrays.asList(campaign(3), campaign(7)), Sort.by("date", "startDate", "campaignName")));
+		queries.put("findByBookTitle", () -> amsDataRepository.findByBookTitle(title(3)));
+		queries.put("findByBookTitleAndDate", () -> amsDataRepository.findByBookTitleAndDate(title(3), day(10)));
+		queries.put("findByBookTitleAndDateAfter", () -> amsDataRepository.findByBookTitleAndDateAfter(title(3), day(20)));
+		queries.put("findByBookTitleAndDateBetween", () -> amsDataRepository.findByBookTitleAndDateBetween(title(3), day(5), day(15)));
+		queries.put("findBySeries", () -> amsDataRepository.findBySeries(series(3)));
+		queries.put("findBySeriesAndDateAfter", () -> amsDataRepository.findBySeriesAndDateAfter(series(3), day(20)));
+		queries.put("findBySeriesAndDateBetween", () -> amsDataRepository.findBySeriesAndDateBetween(series(3), day(5), day(15)));
+
+		verifyQueryPlans(AmsDataRepository.class, queries);
+	}
+
+	@Test
+	public void adTableQueriesUseIndexes() {
+
+		Map<String, Supplier<Publisher<?>>> queries = new LinkedHashMap<>();
+
+		queries.put("findByBookTitle", () -> adTableRepository.findByBookTitle(title(3)));
+		queries.put("existsByCampaignName", () -> adTableRepository.existsByCampaignName(campaign(3)));
+		queries.put("findByCampaignName", () -> adTableRepository.findByCampaignName(campaign(3)));
+
+		verifyQueryPlans(AdTableRepository.class, queries);
+	}
+
+	@Test
+	public void bookQueriesUseIndexes() {
+
+		Map<String, Supplier<Publisher<?>>> queries = new LinkedHashMap<>();
+
+		queries.put("findByTitle", () -> bookRepository.findByTitle(title(3)));
+		queries.put("findBySeries", () -> bookRepository.findBySeries(series(3)));
+		queries.put("findBySeriesAndSeriesNumber", () -> bookRepository.findBySeriesAndSeriesNumber(series(3), 2));
+		queries.put("deleteByTitle", () -> bookRepository.deleteByTitle(title(TITLES - 1)));
+
+		verifyQueryPlans(BookRepository.class, queries);
+	}
+
+	@Test
+	public void royaltyQueriesUseIndexes() {
+
+		Map<String, Supplier<Publisher<?>>> queries = new LinkedHashMap<>();
+
+		queries.put("findByRoyaltyDateAfter", () -> ebookRoyaltyRepository.findByRoyaltyDateAfter(day(25), Sort.by("royaltyDate", "title")));
+		queries.put("findByTitleKey", () -> ebookRoyaltyRepository.findByTitleKey(Utils.titleKey(title(3))));
+		queries.put("findByTitleKeyOrASIN", () -> ebookRoyaltyRepository.findByTitleKeyOrASIN(Utils.titleKey(title(3)), asin(3)));
+		queries.put("findByTitleAndRoyaltyDate", () -> ebookRoyaltyRepository.findByTitleAndRoyaltyDate(title(3), day(10)));
+		queries.put("findByTitleAndRoyaltyDateBetween", () -> ebookRoyaltyRepository.findByTitleAndRoyaltyDateBetween(title(3), day(5), day(15)));
+
+		verifyQueryPlans(EbookRoyaltyRepository.class, queries);
+	}
+
+	@Test
+	public void kenpReadQueriesUseIndexes() {
+
+		Map<String, Supplier<Publisher<?>>> queries = new LinkedHashMap<>();
+
+		queries.put("findByTitleAndOrderDate", () -> kenpReadRepository.findByTitleAndOrderDate(title(3), day(10)));
+		queries.put("findByTitleAndOrderDateBetween", () -> kenpReadRepository.findByTitleAndOrderDateBetween(title(3), day(5), day(15)));
+		queries.put("findByOrderDateAfter", () -> kenpReadRepository.findByOrderDateAfter(day(25), Sort.by("orderDate", "title")));
+
+		verifyQueryPlans(KenpReadRepository.class, queries);
+	}
+
+	@Test
+	public void rawDataApiPagesAreIndexRangeScans() {
+
+		Map<String, Supplier<Publisher<?>>> queries = new LinkedHashMap<>();
+
+		queries.put("ams", () -> secondPage(after -> rawDataApiController.ams(
+			Optional.of(day(5)), Optional.of(day(25)), Optional.empty(), after, 10)));
+		queries.put("royalties", () -> secondPage(after -> rawDataApiController.royalties(
+			Optional.of(day(5)), Optional.empty(), Optional.of(Arrays.asList("netUnitsSold", "royalty")), after, 10)));
+		queries.put("kenp", () -> secondPage(after -> rawDataApiController.kenp(
+			Optional.empty(), Optional.of(day(25)), Optional.empty(), after, 10)));
+
+		queries.forEach((endpoint, query) -> {
+
+			List<String> stages = verifyQueryPlans(RawDataApiController.class.getSimpleName() + "." + endpoint, query);
+
+			assertThat(stages)
+				.as(endpoint + " sorts in memory instead of walking the index " + stages)
+				.doesNotContain("SORT");
+		});
+	}
+
+	@Test
+	public void handBuiltQueriesUseIndexes() {
+
+		Book book = new Book(null, 3, 3, title(3), "", "Author", "B3", series(3), 2, asin(3), 100.0);
+
+		Map<String, Supplier<Publisher<?>>> queries = new LinkedHashMap<>();
+
+		queries.put("royalties", () -> adService.royalties(book, Optional.empty()));
+		queries.put("royaltiesAfter", () -> adService.royalties(book, Optional.of(day(20))));
+		queries.put("pageReads", () -> adService.pageReads(book, Optional.empty()));
+		queries.put("pageReadsAfter", () -> adService.pageReads(book, Optional.of(day(20))));
+		queries.put("unlinkedAmsData", () -> adService.unlinkedAmsData());
+		queries.put("distinctRoyaltyTitles", () -> adService.distinctRoyaltyTitles());
+
+		queries.forEach((method, query) -> verifyQueryPlans(AdService.class.getSimpleName() + "." + method, query));
+	}
+
+	/**
+	 * The anti-join in {@link AdService#unlinkedAmsData()} looks up each campaign in the ad table on the server, where
+	 * the driver never sees the query, so check the index it relies on is there.
+	 */
+	@Test
+	public void unlinkedAmsDataLooksUpAdsByIndex() {
+
+		List<String> leadingKeys = operations.indexOps(AdTableObject.class).getIndexInfo()
+			.map(indexInfo -> indexInfo.getIndexFields().get(0).getKey())
+			.collectList()
+			.block();
+
+		assertThat(leadingKeys).contains("campaignName");
+	}
+
+	/**
+	 * Fetch the first page and capture only the query for the page after it, the one that has to seek past a cursor.
+	 */
+	private static Mono<RawDataPage> secondPage(Function<Optional<String>, Mono<RawDataPage>> endpoint) {
+
+		return endpoint.apply(Optional.empty())
+			.doOnNext(firstPage -> commands.clear())
+			.flatMap(firstPage -> endpoint.apply(Optional.of(firstPage.getNext())));
+	}
+
+	private void verifyQueryPlans(Class<?> repositoryInterface, Map<String, Supplier<Publisher<?>>> queries) {
+
+		assertThat(queries.keySet())
+			.as("Every query method on " + repositoryInterface.getSimpleName() + " needs a query plan check")
+			.hasSameElementsAs(Arrays.stream(repositoryInterface.getDeclaredMethods())
+				.map(Method::getName)
+				.collect(Collectors.toList()));
+
+		queries.forEach((methodName, query) -> verifyQueryPlans(repositoryInterface.getSimpleName() + "." + methodName, query));
+	}
+
+	private List<String> verifyQueryPlans(String queryMethod, Supplier<Publisher<?>> query) {
+
+		commands.clear();
+		Flux.from(query.get()).blockLast();
+
+		List<BsonDocument> issued = commands.issued();
+
+		assertThat(issued).as(queryMethod + " sent no query to MongoDB").isNotEmpty();
+
+		List<String> stages = new ArrayList<>();
+		issued.forEach(command -> stages.addAll(verifyQueryPlan(queryMethod, command)));
+
+		return stages;
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<String> verifyQueryPlan(String queryMethod, BsonDocument command) {
+
+		Document explained = operations.executeCommand(new Document("explain", command)
+			.append("verbosity", "executionStats"))
+			.block();
+
+		// An aggregation explains its first stage's query under $cursor, unless the whole pipeline ran in the query layer
+		if (explained.containsKey("stages")) {
+			explained = (Document) ((List<Document>) explained.get("stages")).get(0).get("$cursor");
+		}
+
+		Document queryPlanner = (Document) explained.get("queryPlanner");
+		Document executionStats = (Document) explained.get("executionStats");
+
+		List<String> stages = stages((Document) queryPlanner.get("winningPlan"));
+
+		long docsExamined = ((Number) executionStats.get("totalDocsExamined")).longValue();
+		long docsReturned = ((Number) executionStats.get("nReturned")).longValue();
+
+		log.info(queryMethod + " => " + stages + " examined " + docsExamined + " returned " + docsReturned);
+
+		assertThat(stages)
+			.as(queryMethod + " has no index scan in its plan " + stages)
+			.containsAnyOf("IXSCAN", "IDHACK", "COUNT_SCAN", "DISTINCT_SCAN")
+			.doesNotContain("COLLSCAN");
+
+		assertThat(docsExamined)
+			.as(queryMethod + " examined " + docsExamined + " documents to return " + docsReturned)
+			.isLessThanOrEqualTo(MAX_DOCS_EXAMINED_PER_DOC_RETURNED * Math.max(docsReturned, 1));
+
+		return stages;
+	}
+
+	/**
+	 * Flatten a plan tree into the names of its stages.
+	 */
+	@SuppressWarnings("unchecked")
+	private static List<String> stages(Document plan) {
+
+		List<String> stages = new ArrayList<>();
+
+		if (plan == null) {
+			return stages;
+		}
+
+		Optional.ofNullable(plan.getString("stage")).ifPresent(stages::add);
+
+		stages.addAll(stages((Document) plan.get("inputStage")));
+		stages.addAll(stages((Document) plan.get("queryPlan")));
+
+		((List<Document>) plan.getOrDefault("inputStages", Collections.emptyList()))
+			.forEach(inputStage -> stages.addAll(stages(inputStage)));
+
+		return stages;
+	}
+
+	/**
+	 * Records every query command sent by the driver so it can be replayed through {@code explain}.
+	 */
+	static class CommandCapture implements CommandListener {
+
+		private final List<BsonDocument> issued = new CopyOnWriteArrayList<>();
+
+		@Override
+		public void commandStarted(CommandStartedEvent event) {
+
+			if (QUERY_COMMANDS.contains(event.getCommandName())) {
+
+				// The event's command is backed by a pooled buffer, so take a copy before the driver releases it.
+				BsonDocument command = BsonDocument.parse(event.getCommand().toJson());
+
+				command.keySet().removeIf(key -> key.startsWith("$") || key.equals("lsid") || key.equals("txnNumber"));
+
+				issued.add(command);
+			}
+		}
+
+		@Override
+		public void commandSucceeded(CommandSucceededEvent event) {
+		}
+
+		@Override
+		public void commandFailed(CommandFailedEvent event) {
+		}
+
+		void clear() {
+			issued.clear();
+		}
+
+		List<BsonDocument> issued() {
+			return new ArrayList<>(issued);
+		}
+	}
+
+	private static String title(int i) {
+		return "Book " + i;
+	}
+
+	private static String asin(int i) {
+		return "ASIN" + i;
+	}
+
+	private static String series(int i) {
+		return "Series " + (i % 3);
+	}
+
+	private static String campaign(int i) {
+		return "Campaign " + i;
+	}
+
+	private static LocalDate day(int i) {
+		return START.plusDays(i);
+	}
+
+	private static List<Book> books() {
+
+		return IntStream.range(0, TITLES)
+			.mapToObj(i -> new Book(null, i, i, title(i), "", "Author", "B" + i, series(i), i / 3 + 1, "ASIN" + i, 100.0))
+			.collect(Collectors.toList());
+	}
+
+	private static List<AdTableObject> ads() {
+
+		return IntStream.range(0, CAMPAIGNS)
+			.mapToObj(i -> new AdTableObject(null, i, campaign(i), "Sponsored Products", START, Optional.empty(), 10.0,
+				title(i % TITLES), series(i % TITLES)))
+			.collect(Collectors.toList());
+	}
+
+	private static List<AmsDataObject> amsData() {
+
+		return IntStream.range(0, CAMPAIGNS * DAYS)
+			.mapToObj(i -> new AmsDataObject(null, i, i % 2 == 0 ? "ENABLED" : "PAUSED", campaign(i % CAMPAIGNS),
+				"Sponsored Products", START, Optional.empty(), 10.0, 0.0, Optional.of(100.0), Optional.of(100.0),
+				Optional.of(5.0), Optional.of(5.0), Optional.of(0.35), day(i / CAMPAIGNS), Optional.empty(), Optional.empty(),
+				title(i % CAMPAIGNS % TITLES), series(i % CAMPAIGNS % TITLES)))
+			.collect(Collectors.toList());
+	}
+
+	private static List<EbookRoyaltyDataObject> royalties() {
+
+		return IntStream.range(0, TITLES * DAYS)
+			.mapToObj(i -> new EbookRoyaltyDataObject(null, i, day(i / TITLES), title(i % TITLES), "Author",
+				"ASIN" + (i % TITLES), "Amazon.com", "70%", "Standard", 1.0, 2.05, "USD", Utils.titleKey(title(i % TITLES))))
+			.collect(Collectors.toList());
+	}
+
+	private static List<KenpReadDataObject> kenpReads() {
+
+		return IntStream.range(0, TITLES * DAYS)
+			.mapToObj(i -> new KenpReadDataObject(null, i, day(i / TITLES), title(i % TITLES), "Author",
+				"ASIN" + (i % TITLES), "Amazon.com", 150.0, Utils.titleKey(title(i % TITLES))))
+			.collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.magicspreadsheet;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Take a snapshot of a seeded local MongoDB and restore it, checking nothing is lost or changed on the way, that money
+ * and dates come back in the configured encoding, and that a bad file leaves the data alone.
+ *
+ * @author Greg Turnquist
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "spring.data.mongodb.database=magic-spreadsheet-snapshots")
+public class SnapshotServiceTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Autowired ReactiveMongoOperations operations;
+	@Autowired SnapshotService snapshotService;
+
+	@Before
+	public void setUp() {
+
+		Flux.fromIterable(IndexService.DOCUMENTS)
+			.flatMap(operations::dropCollection)
+			.blockLast();
+
+		Flux.merge(
+			operations.insert(documents(3, i -> new Document("title", "Book " + i).append("series", "Darklight")),
+				operations.getCollectionName(Book.class)),
+			operations.insert(documents(2500, i -> new Document("campaignName", "Campaign " + (i % 20)).append("impressions", (double) i)),
+				operations.getCollectionName(AmsDataObject.class)),
+			operations.insert(documents(10, i -> new Document("title", "Book " + (i % 3)).append("titleKey", "book " + (i % 3)).append("royalty", 2.09)),
+				operations.getCollectionName(EbookRoyaltyDataObject.class)))
+			.blockLast();
+	}
+
+	@After
+	public void tearDown() {
+		Mono.from(operations.getMongoDatabase().drop()).block();
+	}
+
+	@Test
+	public void restoringASnapshotBringsBackEveryDocument() throws IOException {
+
+		Map<String, List<Document>> before = everything();
+		Path snapshot = snapshot();
+
+		Flux.fromIterable(IndexService.DOCUMENTS)
+			.flatMap(operations::dropCollection)
+			.blockLast();
+
+		assertThat(snapshotService.restore(snapshot).block(Duration.ofSeconds(30))).isEqualTo(2513L);
+		assertThat(everything()).isEqualTo(before);
+	}
+
+	@Test
+	public void restoringASnapshotTakenWithCompactStorageBringsItToTheConfiguredEncoding() throws IOException {
+
+		String collectionName = operations.getCollectionName(EbookRoyaltyDataObject.class);
+		LocalDate royaltyDate = LocalDate.of(2018, 8, 14);
+
+		operations.insert(new Document("title", "Compact").append("titleKey", "compact")
+				.append("royaltyDate", Math.toIntExact(royaltyDate.toEpochDay()))
+				.append("royalty", 2_090_000L), collectionName)
+			.block();
+
+		Path snapshot = snapshot();
+
+		assertThat(snapshotService.restore(snapshot).block(Duration.ofSeconds(30))).isEqualTo(2514L);
+
+		Document restored = operations.findOne(Query.query(Criteria.where("title").is("Compact")), Document.class, collectionName)
+			.block(Duration.ofSeconds(30));
+
+		assertThat(restored.get("royaltyDate")).isEqualTo(CompactEncoding.date(royaltyDate));
+		assertThat(restored.get("royalty")).isEqualTo(2.09);
+	}
+
+	@Test
+	public void somethingElseLeavesTheDataAlone() throws IOException {
+
+		Map<String, List<Document>> before = everything();
+
+		Path notASnapshot = folder.newFile("not-a-snapshot.gz").toPath();
+		Files.write(notASnapshot, "Campaign Name,Status\n".getBytes());
+
+		assertThatThrownBy(() -> snapshotService.restore(notASnapshot).block(Duration.ofSeconds(30))).hasCauseInstanceOf(IOException.class);
+		assertThat(everything()).isEqualTo(before);
+	}
+
+	@Test
+	public void aTruncatedSnapshotLeavesTheDataAlone() throws IOException {
+
+		Map<String, List<Document>> before = everything();
+
+		byte[] snapshot = Files.readAllBytes(snapshot());
+		Path truncated = folder.newFile("truncated.gz").toPath();
+		Files.write(truncated, Arrays.copyOf(snapshot, snapshot.length / 2));
+
+		assertThatThrownBy(() -> snapshotService.restore(truncated).block(Duration.ofSeconds(30))).hasCauseInstanceOf(IOException.class);
+		assertThat(everything()).isEqualTo(before);
+	}
+
+	private Path snapshot() throws IOException {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		snapshotService.snapshot()
+			.doOnNext(dataBuffer -> {
+				byte[] chunk = new byte[dataBuffer.readableByteCount()];
+				dataBuffer.read(chunk);
+				DataBufferUtils.release(dataBuffer);
+				bytes.write(chunk, 0, chunk.length);
+			})
+			.blockLast(Duration.ofSeconds(30));
+
+		Path snapshot = folder.newFile().toPath();
+		Files.write(snapshot, bytes.toByteArray());
+
+		return snapshot;
+	}
+
+	private Map<String, List<Document>> everything() {
+
+		Map<String, List<Document>> everything = new LinkedHashMap<>();
+
+		IndexService.DOCUMENTS.forEach(documentType -> {
+			String collectionName = operations.getCollectionName(documentType);
+			everything.put(collectionName, operations.find(new Query().with(Sort.by("_id")), Document.class, collectionName)
+				.collectList()
+				.block(Duration.ofSeconds(30)));
+		});
+
+		return everything;
+	}
+
+	private static List<Document> documents(int count, IntFunction<Document> document) {
+		return IntStream.range(0, count).mapToObj(document).collect(Collectors.toList());
+	}
+}
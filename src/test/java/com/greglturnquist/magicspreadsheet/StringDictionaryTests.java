@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.magicspreadsheet;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.bson.Document;
+import org.junit.Test;
+
+/**
+ * @author Greg Turnquist
+ */
+public class StringDictionaryTests {
+
+	DatasetEvents datasetEvents = new DatasetEvents(new DatasetVersion());
+
+	@Test
+	public void equalValuesShareOneCopy() {
+
+		StringDictionary dictionary = new StringDictionary(datasetEvents, 10);
+
+		String first = dictionary.intern(new String("Amazon.com"));
+		String second = dictionary.intern(new String("Amazon.com"));
+
+		assertThat(second).isSameAs(first);
+		assertThat(dictionary.size()).isEqualTo(1);
+		assertThat(dictionary.intern((String) null)).isNull();
+	}
+
+	@Test
+	public void neverGrowsPastItsLimitUnderConcurrentLoads() {
+
+		StringDictionary dictionary = new StringDictionary(datasetEvents, 100);
+
+		IntStream.range(0, 10_000).parallel().forEach(i -> dictionary.intern("campaign-" + i));
+
+		assertThat(dictionary.size()).isEqualTo(100);
+	}
+
+	@Test
+	public void startsOverWhenFull() {
+
+		StringDictionary dictionary = new StringDictionary(datasetEvents, 1);
+		String dollars = dictionary.intern("USD");
+
+		String euros = new String("EUR");
+
+		assertThat(dictionary.intern(euros)).isSameAs(euros);
+		assertThat(dictionary.intern(new String("EUR"))).isSameAs(euros);
+		assertThat(dictionary.intern(new String("USD"))).isNotSameAs(dollars);
+		assertThat(dictionary.size()).isEqualTo(1);
+	}
+
+	@Test
+	public void emptiedWhenTheWholeDatasetIsReplaced() {
+
+		StringDictionary dictionary = new StringDictionary(datasetEvents, 10);
+		dictionary.clearWhenEverythingChanges();
+
+		dictionary.intern("Darklight");
+		datasetEvents.publish(DatasetChangedEvent.ofTitle("royalty-data", "Darklight"));
+
+		assertThat(dictionary.size()).isEqualTo(1);
+
+		datasetEvents.publish(DatasetChangedEvent.everything("delete-all"));
+
+		assertThat(dictionary.size()).isZero();
+	}
+
+	/**
+	 * Rows loaded with a fresh copy of every value end up holding only one copy of each between them.
+	 */
+	@Test
+	public void loadedRowsRetainOneCopyOfEachValue() {
+
+		StringDictionary dictionary = new StringDictionary(datasetEvents, 100);
+
+		List<Document> rows = IntStream.range(0, 10_000)
+			.mapToObj(i -> new Document("campaignName", "Darklight - campaign " + (i % 20))
+				.append("marketplace", new String("Amazon.com"))
+				.append("currency", new String("USD")))
+			.collect(Collectors.toList());
+
+		rows.forEach(dictionary::intern);
+
+		Set<Object> retained = Collections.newSetFromMap(new IdentityHashMap<>());
+		rows.forEach(row -> retained.addAll(row.values()));
+
+		assertThat(retained).hasSize(22);
+		assertThat(retained.stream().mapToInt(value -> ((String) value).length()).sum())
+			.isEqualTo(20 * "Darklight - campaign 0".length() + 10 + "Amazon.com".length() + "USD".length());
+	}
+
+	@Test
+	public void internsOnlyDictionaryFieldsOfADocument() {
+
+		StringDictionary dictionary = new StringDictionary(datasetEvents, 10);
+		String title = dictionary.intern("Darklight");
+
+		Document document = new Document("title", new String("Darklight"))
+			.append("campaignName", "Darklight - auto")
+			.append("notes", "Darklight")
+			.append("royalty", 2.09);
+
+		dictionary.intern(document);
+
+		assertThat(document.get("title")).isSameAs(title);
+		assertThat(dictionary.size()).isEqualTo(2);
+		assertThat(document.get("royalty")).isEqualTo(2.09);
+	}
+}
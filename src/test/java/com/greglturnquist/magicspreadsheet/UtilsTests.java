@@ -15,6 +15,7 @@
  */
 package com.greglturnquist.magicspreadsheet;
 
+import static org.assertj.core.api.Assertions.*;
 import static org.mockito.BDDMockito.*;
 
 import lombok.extern.slf4j.Slf4j;
@@ -22,6 +23,7 @@ import lombok.extern.slf4j.Slf4j;
 import java.time.Duration;
 import java.time.LocalDate;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Optional;
 
 import org.junit.Before;
@@ -53,7 +55,7 @@ public class UtilsTests {
 	@Before
 	public void setUp() {
 
-		given(royaltyRepository.findByTitleLike("Test Book")).willReturn(Flux.just(
+		given(royaltyRepository.findByTitleKey("test book")).willReturn(Flux.just(
 			new EbookRoyaltyDataObject(
 				null,
 				-1,
@@ -66,7 +68,8 @@ public class UtilsTests {
 				null,
 				1.0,
 				1.99,
-				null
+				null,
+				"test book"
 			),
 			new EbookRoyaltyDataObject(
 				null,
@@ -80,7 +83,8 @@ public class UtilsTests {
 				null,
 				1.0,
 				1.99,
-				null
+				null,
+				"test book"
 			),
 			new EbookRoyaltyDataObject(
 				null,
@@ -94,7 +98,8 @@ public class UtilsTests {
 				null,
 				1.0,
 				1.99,
-				null
+				null,
+				"test book"
 			)
 			));
 
@@ -116,7 +121,9 @@ public class UtilsTests {
 				null,
 				date1,
 				Optional.empty(),
-				Optional.empty()
+				Optional.empty(),
+				null,
+				null
 			),
 			new AmsDataObject(
 				null,
@@ -135,7 +142,9 @@ public class UtilsTests {
 				null,
 				date1.plusDays(1),
 				Optional.empty(),
-				Optional.empty()
+				Optional.empty(),
+				null,
+				null
 			),
 			new AmsDataObject(
 				null,
@@ -154,7 +163,9 @@ public class UtilsTests {
 				null,
 				date1.plusDays(2),
 				Optional.empty(),
-				Optional.empty()
+				Optional.empty(),
+				null,
+				null
 			)
 		));
 
@@ -176,7 +187,9 @@ public class UtilsTests {
 				null,
 				date2,
 				Optional.empty(),
-				Optional.empty()
+				Optional.empty(),
+				null,
+				null
 			),
 			new AmsDataObject(
 				null,
@@ -195,7 +208,9 @@ public class UtilsTests {
 				null,
 				date2.plusDays(1),
 				Optional.empty(),
-				Optional.empty()
+				Optional.empty(),
+				null,
+				null
 			),
 			new AmsDataObject(
 				null,
@@ -214,7 +229,9 @@ public class UtilsTests {
 				null,
 				date2.plusDays(2),
 				Optional.empty(),
-				Optional.empty()
+				Optional.empty(),
+				null,
+				null
 			)
 		));
 	}
@@ -230,4 +247,46 @@ public class UtilsTests {
 			.verify(Duration.ofSeconds(30));
 	}
 
+	@Test
+	public void intervalsMatchRoyaltiesByAsinToo() {
+
+		Flux<EbookRoyaltyDataObject> royalties = royaltyRepository.findByTitleKey("test book");
+		given(royaltyRepository.findByTitleKeyOrASIN("test book", "B00TESTBOOK")).willReturn(royalties);
+
+		StepVerifier.create(Utils.clicksPerSale(royaltyRepository, amsDataRepository, "Test Book", "B00TESTBOOK"))
+			.expectNext(Arrays.asList(
+				Tuples.of(117.0, date2),
+				Tuples.of(106.0, date3)))
+			.expectComplete()
+			.verify(Duration.ofSeconds(30));
+
+		verify(royaltyRepository).findByTitleKeyOrASIN("test book", "B00TESTBOOK");
+	}
+
+	@Test
+	public void titleKeys() {
+
+		assertThat(Utils.titleKey("Test Book")).isEqualTo("test book");
+		assertThat(Utils.titleKey("  Test Book : A Novel")).isEqualTo("test book");
+		assertThat(Utils.titleKey("")).isEqualTo("");
+		assertThat(Utils.titleKey(null)).isEqualTo("");
+	}
+
+	@Test
+	public void topKPagesThroughTheRanking() {
+
+		Flux<Integer> scores = Flux.just(5, 3, 9, 1, 7, 8, 2);
+
+		StepVerifier.create(Utils.topK(scores, Comparator.<Integer> reverseOrder(), 0, 3))
+			.expectNext(9, 8, 7)
+			.verifyComplete();
+
+		StepVerifier.create(Utils.topK(scores, Comparator.<Integer> reverseOrder(), 1, 3))
+			.expectNext(5, 3, 2)
+			.verifyComplete();
+
+		StepVerifier.create(Utils.topK(scores, Comparator.<Integer> naturalOrder(), 2, 3))
+			.expectNext(9)
+			.verifyComplete();
+	}
 }